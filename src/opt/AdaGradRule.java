@@ -0,0 +1,35 @@
+package opt;
+
+/** AdaGrad: per-coordinate step sizes scaled by the accumulated squared gradients
+ *
+ *    G = G + grad^2,   x = x - alpha * grad / (sqrt(G) + eps)
+ *
+ */
+public class AdaGradRule implements UpdateRule {
+
+	private double _eps;      // avoids division by zero
+	private double[] _g2;     // sum of squared gradients
+
+	public AdaGradRule() {
+		this(1e-8);
+	}
+
+	public AdaGradRule(double eps) {
+		_eps = eps;
+	}
+
+	public void reset(int n) {
+		_g2 = RuleState.zeros(_g2, n);
+	}
+
+	public void update(double[] x, double[] grad, double stepSize) {
+		for (int i = 0; i < x.length; i++) {
+			_g2[i] += grad[i] * grad[i];
+			x[i] -= stepSize * grad[i] / (Math.sqrt(_g2[i]) + _eps);
+		}
+	}
+
+	public String toString() {
+		return "AdaGrad (eps=" + _eps + ")";
+	}
+}
@@ -0,0 +1,49 @@
+package opt;
+
+/** Adam: bias-corrected moving averages of the gradient (m) and squared gradient (v)
+ *
+ *    m = b1 * m + (1 - b1) * grad,   v = b2 * v + (1 - b2) * grad^2
+ *    x = x - alpha * (m / (1 - b1^t)) / (sqrt(v / (1 - b2^t)) + eps)
+ *
+ */
+public class AdamRule implements UpdateRule {
+
+	private double _beta1, _beta2, _eps;
+	private double[] _m;      // first moment estimate
+	private double[] _v;      // second moment estimate
+	private double _beta1t;   // beta1^t
+	private double _beta2t;   // beta2^t
+
+	public AdamRule() {
+		this(0.9, 0.999, 1e-8);
+	}
+
+	public AdamRule(double beta1, double beta2, double eps) {
+		_beta1 = beta1;
+		_beta2 = beta2;
+		_eps = eps;
+	}
+
+	public void reset(int n) {
+		_m = RuleState.zeros(_m, n);
+		_v = RuleState.zeros(_v, n);
+		_beta1t = 1d;
+		_beta2t = 1d;
+	}
+
+	public void update(double[] x, double[] grad, double stepSize) {
+		_beta1t *= _beta1;
+		_beta2t *= _beta2;
+		for (int i = 0; i < x.length; i++) {
+			_m[i] = _beta1 * _m[i] + (1d - _beta1) * grad[i];
+			_v[i] = _beta2 * _v[i] + (1d - _beta2) * grad[i] * grad[i];
+			double mHat = _m[i] / (1d - _beta1t);
+			double vHat = _v[i] / (1d - _beta2t);
+			x[i] -= stepSize * mHat / (Math.sqrt(vHat) + _eps);
+		}
+	}
+
+	public String toString() {
+		return "Adam (beta1=" + _beta1 + ", beta2=" + _beta2 + ")";
+	}
+}
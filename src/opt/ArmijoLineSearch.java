@@ -0,0 +1,54 @@
+package opt;
+
+import poly.GradientEvaluator;
+
+/** Backtracking line search: starting from an initial step t, halve t (or
+ *  multiply by the shrink factor) until the Armijo sufficient decrease condition
+ *
+ *    f(x + t*d) <= f(x) + c * t * (grad . d)
+ *
+ *  holds.  Adapts to the scaling of the objective, so it neither diverges like a
+ *  too-large fixed step nor crawls like a too-small one.
+ *
+ */
+public class ArmijoLineSearch implements LineSearch {
+
+	private double _initialStep; // first step tried
+	private double _c;           // sufficient decrease constant, in (0,1)
+	private double _shrink;      // step multiplier per backtrack, in (0,1)
+	private int    _maxBacktracks;
+
+	/** Default constructor: initial step 1, c = 1e-4, shrink = 0.5
+	 *
+	 */
+	public ArmijoLineSearch() {
+		this(1d, 1e-4, 0.5);
+	}
+
+	public ArmijoLineSearch(double initialStep, double c, double shrink) {
+		_initialStep = initialStep;
+		_c = c;
+		_shrink = shrink;
+		_maxBacktracks = 60;
+	}
+
+	public double step(GradientEvaluator f, double[] x, double fx, double[] grad,
+			double[] dir, double[] trial, double stepSize) {
+		double slope = 0d;
+		for (int i = 0; i < x.length; i++)
+			slope += grad[i] * dir[i];
+		double t = _initialStep;
+		for (int n = 0; n < _maxBacktracks; n++) {
+			for (int i = 0; i < x.length; i++)
+				trial[i] = x[i] + t * dir[i];
+			if (f.evaluate(trial) <= fx + _c * t * slope)
+				return t;
+			t *= _shrink;
+		}
+		return t;
+	}
+
+	public String toString() {
+		return "Armijo backtracking (t0=" + _initialStep + ", c=" + _c + ", shrink=" + _shrink + ")";
+	}
+}
@@ -0,0 +1,180 @@
+package opt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import poly.CompiledPolynomial;
+import poly.Polynomial;
+import util.Vector;
+
+/** Cyclic coordinate descent with incremental objective maintenance.  Changing
+ *  one coordinate x_i only changes the terms that contain x_i, so this keeps the
+ *  value of every term cached and an inverted index from each variable to the
+ *  terms it appears in.  Updating x_i then costs only the terms of x_i: their
+ *  partials give the coordinate step and their new values give the objective
+ *  delta, never a full re-evaluation.
+ *
+ *  Each coordinate step is a 1D Newton step -g_i / h_i when the second partial
+ *  h_i is positive and -alpha * g_i otherwise, halved while it would increase
+ *  the objective.  One iteration is a full sweep over all coordinates; the
+ *  reported gradient norm is that of the partials seen during the last sweep.
+ *
+ */
+public class CoordinateDescentMinimizer extends Minimizer {
+
+	private static final int MAX_HALVINGS = 30;
+
+	// Compiled state and index, rebuilt only when the Polynomial changes
+	private Polynomial _builtFor;	// Polynomial the state below was built for
+	private List<String> _vars;		// variable order
+	private CompiledPolynomial _objc;	// compiled objective
+	private int[] _varTermStart;	// terms of variable i are at _varTermStart[i] .. _varTermStart[i+1]-1
+	private int[] _varTerms;		// term index of each (variable, term) pair
+	private int[] _varFactors;		// factor index k of the variable within that term
+	private int _maxTermsPerVar;	// largest number of terms a variable appears in
+
+	public CoordinateDescentMinimizer() {
+		super();
+	}
+
+	/** Builds (once per Polynomial) the compiled objective and the inverted
+	 *  variable-to-terms index
+	 *
+	 * @param p
+	 * @throws Exception
+	 */
+	private void prepare(Polynomial p) throws Exception {
+		if (p == _builtFor)
+			return;
+		_vars = new ArrayList<String>(p.getAllVars());
+		_objc = p.canonicalize().compile(_vars);
+		int n = _vars.size();
+
+		// Count, prefix sum, fill (factors with power 0 do not depend on the variable)
+		_varTermStart = new int[n + 1];
+		for (int t = 0; t < _objc.getNumTerms(); t++)
+			for (int k = _objc.getTermBegin(t); k < _objc.getTermEnd(t); k++)
+				if (_objc.getPow(k) != 0)
+					_varTermStart[_objc.getVarIndex(k) + 1]++;
+		_maxTermsPerVar = 0;
+		for (int i = 0; i < n; i++) {
+			_maxTermsPerVar = Math.max(_maxTermsPerVar, _varTermStart[i + 1]);
+			_varTermStart[i + 1] += _varTermStart[i];
+		}
+		_varTerms = new int[_varTermStart[n]];
+		_varFactors = new int[_varTermStart[n]];
+		int[] fill = new int[n];
+		for (int t = 0; t < _objc.getNumTerms(); t++)
+			for (int k = _objc.getTermBegin(t); k < _objc.getTermEnd(t); k++) {
+				if (_objc.getPow(k) == 0)
+					continue;
+				int i = _objc.getVarIndex(k);
+				int pos = _varTermStart[i] + fill[i]++;
+				_varTerms[pos] = t;
+				_varFactors[pos] = k;
+			}
+		_builtFor = p;
+	}
+
+	/** Run cyclic coordinate descent
+	 *
+	 * @param p Polynomial to minimize
+	 * @throws Exception if x0 does not assign every variable of p
+	 */
+	@Override
+	public void minimize(Polynomial p) throws Exception {
+
+		long start = System.currentTimeMillis();
+		prepare(p);
+
+		int n = _vars.size();
+		double[] x = new double[n];
+		double[] termVal = new double[_objc.getNumTerms()];	// cached term values
+		double[] newVal = new double[_maxTermsPerVar];		// trial values of the affected terms
+		loadStartingPoint(_vars, x);
+
+		double obj = 0d;
+		for (int t = 0; t < termVal.length; t++) {
+			termVal[t] = _objc.evaluateTerm(t, x);
+			obj += termVal[t];
+		}
+
+		_nIter = 0;
+		_lastObjVal = obj;
+		_lastGradNorm = Double.MAX_VALUE;
+
+		while (getNIter() < getMaxIter() && areWeFarFromMinimum()) {
+			_nIter++;
+			double norm2 = 0d;
+			for (int i = 0; i < n; i++) {
+				int begin = _varTermStart[i], end = _varTermStart[i + 1];
+
+				// Partial and second partial of the objective along x_i
+				double g = 0d, h = 0d;
+				for (int j = begin; j < end; j++) {
+					g += _objc.evaluateTermPartial(_varTerms[j], _varFactors[j], x);
+					h += _objc.evaluateTermSecondPartial(_varTerms[j], _varFactors[j], x);
+				}
+				norm2 += g * g;
+				if (g == 0d)
+					continue;
+
+				// Step, halved while the objective delta of the affected terms is positive
+				double old = x[i];
+				double delta = h > 0d ? -g / h : -_stepSize * g;
+				double change = 0d;
+				for (int halvings = 0; halvings <= MAX_HALVINGS; halvings++, delta *= 0.5) {
+					x[i] = old + delta;
+					change = 0d;
+					for (int j = begin; j < end; j++) {
+						newVal[j - begin] = _objc.evaluateTerm(_varTerms[j], x);
+						change += newVal[j - begin] - termVal[_varTerms[j]];
+					}
+					if (change <= 0d)
+						break;
+				}
+				if (change > 0d) { // no decrease found along x_i
+					x[i] = old;
+					continue;
+				}
+				for (int j = begin; j < end; j++)
+					termVal[_varTerms[j]] = newVal[j - begin];
+				obj += change;
+			}
+			_lastGradNorm = Math.sqrt(norm2);
+			_lastObjVal = obj;
+		}
+
+		// Re-evaluate once to drop any round-off accumulated in the incremental sum
+		_lastObjVal = _objc.evaluate(x);
+		storeLastPoint(_vars, x);
+		_compTime = System.currentTimeMillis() - start;
+	}
+
+	/** Coordinate descent on a sparse 20000-variable chain objective
+	 *  sum_i (x_i - x_{i+1})^2 / 4 + (x_i - 1)^2, where each variable is in a few terms
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int n = 20000;
+		StringBuilder sb = new StringBuilder();
+		Vector x0 = new Vector();
+		for (int i = 0; i < n; i++) {
+			sb.append(i == 0 ? "" : " + ").append("x" + i + "^2 + -2*x" + i + " + 1");
+			if (i + 1 < n)
+				sb.append(" + 0.25*x" + i + "^2 + -0.5*x" + i + "*x" + (i + 1) + " + 0.25*x" + (i + 1) + "^2");
+			x0.set("x" + i, 0.0);
+		}
+		Polynomial p = new Polynomial(sb.toString());
+
+		CoordinateDescentMinimizer cd = new CoordinateDescentMinimizer();
+		cd.setX0(x0);
+		cd.setMaxIter(100);
+		cd.minimize(p);
+		System.out.format("Coordinate descent: %d sweeps, gradient norm %.5f, objective %.6f, %d ms\n",
+				cd.getNIter(), cd.getLastGradNorm(), cd.getLastObjVal(), cd.getCompTime());
+		// Should reach objective 0.000000 (all x_i = 1) in a handful of sweeps
+	}
+}
@@ -0,0 +1,46 @@
+package opt;
+
+import poly.GradientEvaluator;
+
+/** Exact line search for quadratic objectives (total degree <= 2 and no negative
+ *  exponents, see GradientEvaluator.isQuadratic()).  Along a direction d
+ *  such an objective is the 1D quadratic
+ *
+ *    phi(t) = f(x) + t * (grad . d) + a * t^2,   a = phi(1) - f(x) - grad . d
+ *
+ *  so one extra evaluation gives a, and the exact minimizer along d is
+ *  t = -(grad . d) / (2a) whenever a > 0.  For higher degree objectives (or a <= 0)
+ *  it falls back to Armijo backtracking.
+ *
+ */
+public class ExactQuadraticLineSearch implements LineSearch {
+
+	private LineSearch _fallback; // used when f is not quadratic along d
+
+	public ExactQuadraticLineSearch() {
+		this(new ArmijoLineSearch());
+	}
+
+	public ExactQuadraticLineSearch(LineSearch fallback) {
+		_fallback = fallback;
+	}
+
+	public double step(GradientEvaluator f, double[] x, double fx, double[] grad,
+			double[] dir, double[] trial, double stepSize) {
+		if (f.isQuadratic()) {
+			double slope = 0d;
+			for (int i = 0; i < x.length; i++) {
+				slope += grad[i] * dir[i];
+				trial[i] = x[i] + dir[i];
+			}
+			double a = f.evaluate(trial) - fx - slope;
+			if (a > 0d)
+				return -slope / (2d * a);
+		}
+		return _fallback.step(f, x, fx, grad, dir, trial, stepSize);
+	}
+
+	public String toString() {
+		return "exact quadratic (fallback: " + _fallback + ")";
+	}
+}
@@ -0,0 +1,19 @@
+package opt;
+
+import poly.GradientEvaluator;
+
+/** The original fixed step: always returns the Minimizer's step size alpha.
+ *  This is the default LineSearch.
+ *
+ */
+public class FixedStepSearch implements LineSearch {
+
+	public double step(GradientEvaluator f, double[] x, double fx, double[] grad,
+			double[] dir, double[] trial, double stepSize) {
+		return stepSize;
+	}
+
+	public String toString() {
+		return "fixed step";
+	}
+}
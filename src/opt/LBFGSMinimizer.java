@@ -0,0 +1,237 @@
+package opt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import poly.CompiledPolynomial;
+import poly.Polynomial;
+import util.Vector;
+
+/** Limited-memory BFGS (L-BFGS) for minimizing high-dimensional Polynomials where
+ *  steepest descent is too slow and a dense Hessian too big.  The inverse Hessian
+ *  is approximated from the last m pairs
+ *
+ *    s_k = x_{k+1} - x_k,   y_k = grad_{k+1} - grad_k
+ *
+ *  kept in preallocated primitive ring buffers (m * n doubles each), and the search
+ *  direction comes from the standard two-loop recursion.  Steps are chosen by the
+ *  line search of setLineSearch(...), by default Armijo backtracking starting at
+ *  the full step 1; pairs that do not satisfy the curvature condition s . y > 0
+ *  are skipped.
+ *
+ *  The gradient is evaluated from the symbolic partials cached in _var2gradp by
+ *  buildPartialDerivatives(...), and the eps, maxIter, x0 settings, getters and
+ *  printResults(...) are those of Minimizer.
+ *
+ */
+public class LBFGSMinimizer extends Minimizer {
+
+	private int _historySize;		// m, number of (s, y) pairs kept
+
+	// Compiled state, rebuilt only when the Polynomial changes
+	private Polynomial _builtFor;	// Polynomial the state below was built for
+	private List<String> _vars;		// variable order
+	private CompiledPolynomial _objc;	// compiled objective
+	private CompiledPolynomial[] _gradc;	// compiled partials from _var2gradp, in _vars order
+
+	/** Default constructor: history size 10
+	 *
+	 */
+	public LBFGSMinimizer() {
+		this(10);
+	}
+
+	/** Constructor
+	 *
+	 * @param historySize -- number of correction pairs kept (typically 3 to 20)
+	 */
+	public LBFGSMinimizer(int historySize) {
+		super();
+		_historySize = historySize;
+		setLineSearch(new ArmijoLineSearch()); // steps along the L-BFGS direction
+	}
+
+	public int getHistorySize()        { return _historySize; }
+	public void setHistorySize(int m)  { _historySize = m; }
+
+	@Override
+	String getStrategySettings() {
+		return super.getStrategySettings() + ", historySize=" + _historySize;
+	}
+
+	/** Builds (once per Polynomial) the cached partials and compiled forms
+	 *
+	 * @param p
+	 * @throws Exception
+	 */
+	private void prepare(Polynomial p) throws Exception {
+		if (p == _builtFor)
+			return;
+		ensurePartialDerivatives(p);
+		_vars = new ArrayList<String>(p.getAllVars());
+		List<Polynomial> polys = new ArrayList<Polynomial>();
+		polys.add(p.canonicalize());
+		for (String var : _vars)
+			polys.add(_var2gradp.get(var));
+		CompiledPolynomial[] compiled = Polynomial.compile(polys, _vars); // one variable index for all
+		_objc = compiled[0];
+		_gradc = Arrays.copyOfRange(compiled, 1, compiled.length);
+		_builtFor = p;
+	}
+
+	/** Run L-BFGS
+	 *
+	 * @param p Polynomial to minimize
+	 * @throws Exception if x0 does not assign every variable of p or the history size is < 1
+	 */
+	@Override
+	public void minimize(Polynomial p) throws Exception {
+
+		if (_historySize < 1)
+			throw new Exception("L-BFGS needs a history size of at least 1, not " + _historySize);
+		long start = System.currentTimeMillis();
+		prepare(p);
+
+		int n = _vars.size(), m = _historySize;
+		double[] x = new double[n], grad = new double[n], dir = new double[n], trial = new double[n];
+		double[] prevX = new double[n], prevGrad = new double[n]; // then s, y of the new pair
+		double[] s = new double[m * n];		// ring buffer, pair j at [j*n, (j+1)*n)
+		double[] y = new double[m * n];
+		double[] rho = new double[m];		// 1 / (s_j . y_j)
+		double[] alpha = new double[m];		// two-loop scratch
+		LineSearch lineSearch = getLineSearch();
+		int newest = -1, count = 0;			// ring position of the newest pair, pairs stored
+
+		loadStartingPoint(_vars, x);
+		_nIter = 0;
+		_lastObjVal = _objc.evaluate(x);
+		_lastGradNorm = Double.MAX_VALUE;
+		gradient(x, grad);
+
+		while (getNIter() < getMaxIter() && areWeFarFromMinimum()) {
+			_nIter++;
+			_lastGradNorm = norm(grad);
+
+			// Two-loop recursion: dir = -H * grad
+			for (int i = 0; i < n; i++)
+				dir[i] = -grad[i];
+			for (int c = 0, j = newest; c < count; c++, j = (j - 1 + m) % m) {
+				alpha[j] = rho[j] * dot(s, j * n, dir, n);
+				axpy(-alpha[j], y, j * n, dir, n);
+			}
+			if (count > 0) { // initial Hessian gamma * I with gamma = s.y / y.y of the newest pair
+				double gamma = 1d / (rho[newest] * dot(y, newest * n, y, newest * n, n));
+				for (int i = 0; i < n; i++)
+					dir[i] *= gamma;
+			}
+			for (int c = 0, j = (newest - count + 1 + m) % m; c < count; c++, j = (j + 1) % m) {
+				double beta = rho[j] * dot(y, j * n, dir, n);
+				axpy(alpha[j] - beta, s, j * n, dir, n);
+			}
+
+			double step = lineSearch.step(_objc, x, _lastObjVal, grad, dir, trial, _stepSize);
+			System.arraycopy(x, 0, prevX, 0, n);
+			System.arraycopy(grad, 0, prevGrad, 0, n);
+			for (int i = 0; i < n; i++)
+				x[i] += step * dir[i];
+			_lastObjVal = _objc.evaluate(x);
+			gradient(x, grad);
+
+			// Store the new correction pair if it has positive curvature.  It is built
+			// in prevX/prevGrad so that a rejected pair does not overwrite the oldest
+			// stored pair, which is still in use once the ring is full.
+			double sy = 0d;
+			for (int i = 0; i < n; i++) {
+				prevX[i] = x[i] - prevX[i];
+				prevGrad[i] = grad[i] - prevGrad[i];
+				sy += prevX[i] * prevGrad[i];
+			}
+			if (sy > 0d) {
+				int next = (newest + 1) % m;
+				System.arraycopy(prevX, 0, s, next * n, n);
+				System.arraycopy(prevGrad, 0, y, next * n, n);
+				rho[next] = 1d / sy;
+				newest = next;
+				count = Math.min(count + 1, m);
+			}
+		}
+
+		storeLastPoint(_vars, x);
+		_compTime = System.currentTimeMillis() - start;
+	}
+
+	private void gradient(double[] x, double[] grad) {
+		for (int i = 0; i < grad.length; i++)
+			grad[i] = _gradc[i].evaluate(x);
+	}
+
+	private static double norm(double[] v) {
+		double sum = 0d;
+		for (int i = 0; i < v.length; i++)
+			sum += v[i] * v[i];
+		return Math.sqrt(sum);
+	}
+
+	/** a[aOff..aOff+n) . b[0..n) */
+	private static double dot(double[] a, int aOff, double[] b, int n) {
+		double sum = 0d;
+		for (int i = 0; i < n; i++)
+			sum += a[aOff + i] * b[i];
+		return sum;
+	}
+
+	/** a[aOff..aOff+n) . b[bOff..bOff+n) */
+	private static double dot(double[] a, int aOff, double[] b, int bOff, int n) {
+		double sum = 0d;
+		for (int i = 0; i < n; i++)
+			sum += a[aOff + i] * b[bOff + i];
+		return sum;
+	}
+
+	/** b[0..n) += c * a[aOff..aOff+n) */
+	private static void axpy(double c, double[] a, int aOff, double[] b, int n) {
+		for (int i = 0; i < n; i++)
+			b[i] += c * a[aOff + i];
+	}
+
+	/** Compares steepest descent with L-BFGS on an ill-conditioned 1000-variable
+	 *  chain objective  sum_i (x_i - x_{i+1})^2 + sum_i 0.01 * (x_i - 1)^2
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int n = 1000;
+		StringBuilder sb = new StringBuilder();
+		Vector x0 = new Vector();
+		for (int i = 0; i < n; i++) {
+			sb.append(i == 0 ? "" : " + ").append("0.01*x" + i + "^2 + -0.02*x" + i + " + 0.01");
+			if (i + 1 < n)
+				sb.append(" + x" + i + "^2 + -2*x" + i + "*x" + (i + 1) + " + x" + (i + 1) + "^2");
+			x0.set("x" + i, i % 10);
+		}
+		Polynomial p = new Polynomial(sb.toString());
+
+		Minimizer sd = new Minimizer();
+		sd.setX0(x0);
+		sd.setMaxIter(2000);
+		sd.setLineSearch(new ArmijoLineSearch());
+		sd.setClosedForm(false); // compare iterative methods, not the direct quadratic solve
+		sd.minimizeInPlace(p);
+		System.out.format("Steepest descent (Armijo): %4d iterations, gradient norm %.4f, objective %.6f\n",
+				sd.getNIter(), sd.getLastGradNorm(), sd.getLastObjVal());
+
+		LBFGSMinimizer lbfgs = new LBFGSMinimizer();
+		lbfgs.setX0(x0);
+		lbfgs.setMaxIter(2000);
+		lbfgs.minimize(p);
+		System.out.format("L-BFGS (m=10):             %4d iterations, gradient norm %.4f, objective %.6f\n",
+				lbfgs.getNIter(), lbfgs.getLastGradNorm(), lbfgs.getLastObjVal());
+
+		lbfgs.setLineSearch(new ExactQuadraticLineSearch()); // the objective is quadratic
+		lbfgs.minimize(p);
+		System.out.format("L-BFGS (exact steps):      %4d iterations, gradient norm %.4f, objective %.6f\n",
+				lbfgs.getNIter(), lbfgs.getLastGradNorm(), lbfgs.getLastObjVal());
+	}
+}
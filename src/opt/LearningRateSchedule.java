@@ -0,0 +1,47 @@
+package opt;
+
+/** How the learning rate of StochasticMinimizer changes over the iterations.
+ *  The factory methods below give the common schedules.
+ *
+ */
+public interface LearningRateSchedule {
+
+	/** Returns the learning rate for iteration iter (1, 2, ...)
+	 *
+	 * @param alpha -- the Minimizer's step size (initial learning rate)
+	 * @param iter
+	 */
+	public double rate(double alpha, int iter);
+
+	/** alpha at every iteration */
+	public static LearningRateSchedule constant() {
+		return new LearningRateSchedule() {
+			public double rate(double alpha, int iter) { return alpha; }
+			public String toString() { return "constant"; }
+		};
+	}
+
+	/** alpha / (1 + decay * iter) */
+	public static LearningRateSchedule inverseTime(final double decay) {
+		return new LearningRateSchedule() {
+			public double rate(double alpha, int iter) { return alpha / (1d + decay * iter); }
+			public String toString() { return "inverse time (decay=" + decay + ")"; }
+		};
+	}
+
+	/** alpha * gamma^iter */
+	public static LearningRateSchedule exponential(final double gamma) {
+		return new LearningRateSchedule() {
+			public double rate(double alpha, int iter) { return alpha * Math.pow(gamma, iter); }
+			public String toString() { return "exponential (gamma=" + gamma + ")"; }
+		};
+	}
+
+	/** alpha * factor^(iter / every), i.e., multiplied by factor every 'every' iterations */
+	public static LearningRateSchedule step(final double factor, final int every) {
+		return new LearningRateSchedule() {
+			public double rate(double alpha, int iter) { return alpha * Math.pow(factor, iter / every); }
+			public String toString() { return "step (factor=" + factor + " every " + every + ")"; }
+		};
+	}
+}
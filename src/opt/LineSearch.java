@@ -0,0 +1,26 @@
+package opt;
+
+import poly.GradientEvaluator;
+
+/** A strategy for choosing the step size t along a descent direction d, i.e.,
+ *  the next point is x + t*d.  Used by Minimizer.minimizeInPlace(...); select
+ *  one with Minimizer.setLineSearch(...).  Implementations must not allocate
+ *  and must not modify x, grad or dir.
+ *
+ */
+public interface LineSearch {
+
+	/** Returns the step size to take from x along dir
+	 *
+	 * @param f -- objective
+	 * @param x -- current point
+	 * @param fx -- f(x)
+	 * @param grad -- gradient of f at x
+	 * @param dir -- descent direction (grad . dir < 0)
+	 * @param trial -- scratch buffer the size of x for trial points
+	 * @param stepSize -- the Minimizer's step size alpha (getStepSize())
+	 * @return
+	 */
+	public double step(GradientEvaluator f, double[] x, double fx, double[] grad,
+			double[] dir, double[] trial, double stepSize);
+}
@@ -0,0 +1,372 @@
+package opt;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import poly.Polynomial;
+import poly.Term;
+import util.Vector;
+
+/** A bounded, thread-safe cache of minimization results in front of
+ *  Minimizer.minimize(...), for pipelines that resubmit the same objective.
+ *
+ *  Results are keyed by the canonical form of the Polynomial (so x*y + 1 and
+ *  1 + y*x share an entry), the class of the Minimizer, its eps, maxIter and
+ *  stepSize, the starting point x0, and its strategy settings: line search,
+ *  update rule, closed-form flag and those of the subclass, such as the L-BFGS
+ *  history size (see Minimizer.getStrategySettings()).  Strategies are told
+ *  apart by class and toString(), so a custom LineSearch or UpdateRule should
+ *  list its parameters in toString().  A hit restores the final point,
+ *  objective value, gradient norm and iteration count into the Minimizer without
+ *  running it.
+ *
+ *  A second cache keeps the partial derivatives per canonical Polynomial, so a
+ *  miss that only differs in x0 or the settings (a warm start) skips building
+ *  the gradient; see Minimizer.usePartialDerivatives(...).
+ *
+ *  Both caches evict their least recently used entries once they hold more than
+ *  maxEntries entries or a total weight of more than maxWeight, where the weight
+ *  of an entry is the number of terms it holds (plus one per variable of a
+ *  cached point).  Hits, misses and evictions are counted for each.  Two threads
+ *  that miss on the same key at the same time both minimize; the later result
+ *  replaces the earlier one.
+ *
+ */
+public class MinimizationCache {
+
+	private final Lru<ResultKey,Result> _results;                       // final results
+	private final Lru<PolyKey,HashMap<String,Polynomial>> _gradients;  // partials for warm starts
+
+	/** Constructor
+	 *
+	 * @param maxEntries -- maximum number of entries of each cache
+	 * @param maxWeight -- maximum total weight (terms) of each cache
+	 */
+	public MinimizationCache(int maxEntries, long maxWeight) {
+		_results = new Lru<ResultKey,Result>(maxEntries, maxWeight);
+		_gradients = new Lru<PolyKey,HashMap<String,Polynomial>>(maxEntries, maxWeight);
+	}
+
+	// Metrics of the result cache
+	public long getHits()              { return _results.getHits(); }
+	public long getMisses()            { return _results.getMisses(); }
+	public long getEvictions()         { return _results.getEvictions(); }
+	public double getHitRate()         { return _results.getHitRate(); }
+	public int size()                  { return _results.size(); }
+	public long getWeight()            { return _results.getWeight(); }
+
+	// Metrics of the gradient cache
+	public long getGradientHits()      { return _gradients.getHits(); }
+	public long getGradientMisses()    { return _gradients.getMisses(); }
+	public long getGradientEvictions() { return _gradients.getEvictions(); }
+	public double getGradientHitRate() { return _gradients.getHitRate(); }
+
+	/** Removes all entries (the counters are kept)
+	 *
+	 */
+	public void clear() {
+		_results.clear();
+		_gradients.clear();
+	}
+
+	/** Minimizes p with m, or restores a cached result for the same canonical
+	 *  Polynomial, Minimizer class, parameters, x0 and strategy settings.  After a hit the getters
+	 *  of m return the cached results and getCompTime() the time of the lookup;
+	 *  nothing is printed, and results specific to a Minimizer subclass (e.g. the
+	 *  Hessian of NewtonMinimizer) are not restored.
+	 *
+	 * @param m
+	 * @param p
+	 * @throws Exception
+	 */
+	public void minimize(Minimizer m, Polynomial p) throws Exception {
+		long start = System.currentTimeMillis();
+		PolyKey polyKey = new PolyKey(p.canonicalize());
+		ResultKey key = new ResultKey(polyKey, m);
+		Result r = _results.get(key);
+		if (r != null) {
+			m._lastx = copy(r._point);
+			m._lastObjVal = r._objVal;
+			m._lastGradNorm = r._gradNorm;
+			m._nIter = r._nIter;
+			m._compTime = System.currentTimeMillis() - start;
+			return;
+		}
+
+		HashMap<String,Polynomial> partials = _gradients.get(polyKey);
+		if (partials != null)
+			m.usePartialDerivatives(p, partialsFor(p, partials));
+		m.minimize(p);
+
+		if (partials == null && m.hasPartialDerivatives(p)) {
+			// Keep only the variables of the canonical form, see partialsFor(...)
+			partials = new HashMap<String,Polynomial>();
+			long weight = polyKey._terms;
+			for (String var : polyKey._canonical.getAllVars()) {
+				Polynomial dp = m._var2gradp.get(var);
+				partials.put(var, dp);
+				weight += dp.getNumTerms();
+			}
+			_gradients.put(polyKey, partials, weight);
+		}
+		r = new Result(copy(m.getLastPoint()), m.getLastObjVal(), m.getLastGradNorm(), m.getNIter());
+		_results.put(key, r, polyKey._terms + r._point.getKeySet().size());
+	}
+
+	/** Returns cached partials with an (empty) partial for every variable of p
+	 *  that only appears in terms of p that cancel out in the canonical form
+	 */
+	private static HashMap<String,Polynomial> partialsFor(Polynomial p, HashMap<String,Polynomial> partials) {
+		TreeSet<String> vars = p.getAllVars();
+		if (vars.size() == partials.size())
+			return partials;
+		HashMap<String,Polynomial> all = new HashMap<String,Polynomial>(partials);
+		for (String var : vars)
+			if (!all.containsKey(var))
+				all.put(var, new Polynomial());
+		return all;
+	}
+
+	private static Vector copy(Vector v) throws Exception {
+		Vector c = new Vector();
+		c.setAll(v);
+		return c;
+	}
+
+	/** A canonical Polynomial with its term set and hash computed once, so that
+	 *  lookups do not canonicalize it again (as Polynomial.equals(...) and
+	 *  Polynomial.hashCode() do)
+	 */
+	private static class PolyKey {
+		final Polynomial _canonical;
+		final HashSet<Term> _termSet;  // terms of _canonical
+		final int _hash;               // equal to _canonical.hashCode()
+		final int _terms;
+
+		PolyKey(Polynomial canonical) {
+			_canonical = canonical;
+			_termSet = canonical.getTermSet();
+			_hash = _termSet.hashCode();
+			_terms = _termSet.size();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof PolyKey))
+				return false;
+			PolyKey k = (PolyKey)o;
+			return _hash == k._hash && _terms == k._terms && _termSet.equals(k._termSet);
+		}
+
+		@Override
+		public int hashCode() {
+			return _hash;
+		}
+	}
+
+	/** A PolyKey with the Minimizer class, parameters, starting point and strategy settings */
+	private static class ResultKey {
+		final PolyKey _poly;
+		final Class<?> _minimizer;
+		final double _eps, _stepSize;
+		final int _maxIter;
+		final String[] _vars;   // variables of x0, sorted
+		final double[] _x0;     // values of _vars in x0
+		final String _settings; // Minimizer.getStrategySettings()
+		final int _hash;
+
+		ResultKey(PolyKey poly, Minimizer m) throws Exception {
+			_poly = poly;
+			_minimizer = m.getClass();
+			_eps = m.getEps();
+			_stepSize = m.getStepSize();
+			_maxIter = m.getMaxIter();
+			Vector x0 = m.getX0();
+			_vars = new TreeSet<String>(x0.getKeySet()).toArray(new String[0]);
+			_x0 = new double[_vars.length];
+			for (int i = 0; i < _vars.length; i++)
+				_x0[i] = x0.getValAt(_vars[i]);
+			_settings = m.getStrategySettings();
+			int hash = 31 * poly._hash + _minimizer.hashCode();
+			hash = 31 * hash + Double.hashCode(_eps);
+			hash = 31 * hash + Double.hashCode(_stepSize);
+			hash = 31 * hash + _maxIter;
+			hash = 31 * hash + Arrays.hashCode(_vars);
+			hash = 31 * hash + _settings.hashCode();
+			_hash = 31 * hash + Arrays.hashCode(_x0);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ResultKey))
+				return false;
+			ResultKey k = (ResultKey)o;
+			return _hash == k._hash && _minimizer == k._minimizer && _maxIter == k._maxIter
+					&& Double.compare(_eps, k._eps) == 0 && Double.compare(_stepSize, k._stepSize) == 0
+					&& Arrays.equals(_vars, k._vars) && Arrays.equals(_x0, k._x0) && _settings.equals(k._settings)
+					&& _poly.equals(k._poly);
+		}
+
+		@Override
+		public int hashCode() {
+			return _hash;
+		}
+	}
+
+	/** The results of one minimization */
+	private static class Result {
+		final Vector _point;
+		final double _objVal, _gradNorm;
+		final int _nIter;
+
+		Result(Vector point, double objVal, double gradNorm, int nIter) {
+			_point = point;
+			_objVal = objVal;
+			_gradNorm = gradNorm;
+			_nIter = nIter;
+		}
+	}
+
+	/** A least recently used map bounded by entry count and total weight, with
+	 *  hit, miss and eviction counters; all methods are synchronized
+	 */
+	private static class Lru<K,V> {
+		private final LinkedHashMap<K,V> _map = new LinkedHashMap<K,V>(16, 0.75f, true); // access order
+		private final HashMap<K,Long> _weights = new HashMap<K,Long>();
+		private final int _maxEntries;
+		private final long _maxWeight;
+		private long _weight, _hits, _misses, _evictions;
+
+		Lru(int maxEntries, long maxWeight) {
+			_maxEntries = maxEntries;
+			_maxWeight = maxWeight;
+		}
+
+		synchronized V get(K key) {
+			V v = _map.get(key);
+			if (v == null)
+				_misses++;
+			else
+				_hits++;
+			return v;
+		}
+
+		synchronized void put(K key, V value, long weight) {
+			if (weight > _maxWeight)
+				return; // would evict everything else
+			remove(key);
+			_map.put(key, value);
+			_weights.put(key, weight);
+			_weight += weight;
+			Iterator<Map.Entry<K,V>> eldest = _map.entrySet().iterator();
+			while (_map.size() > _maxEntries || _weight > _maxWeight) {
+				K k = eldest.next().getKey();
+				eldest.remove();
+				_weight -= _weights.remove(k);
+				_evictions++;
+			}
+		}
+
+		private void remove(K key) {
+			if (_map.remove(key) != null)
+				_weight -= _weights.remove(key);
+		}
+
+		synchronized void clear() {
+			_map.clear();
+			_weights.clear();
+			_weight = 0L;
+		}
+
+		synchronized int size()          { return _map.size(); }
+		synchronized long getWeight()    { return _weight; }
+		synchronized long getHits()      { return _hits; }
+		synchronized long getMisses()    { return _misses; }
+		synchronized long getEvictions() { return _evictions; }
+
+		synchronized double getHitRate() {
+			return _hits + _misses == 0 ? 0d : (double)_hits / (_hits + _misses);
+		}
+	}
+
+	/** Resubmits a 300-variable objective with L-BFGS: a first run, the same job
+	 *  again (a hit), a new x0 (a warm start from cached partials), then an
+	 *  equal objective written in a different order (a hit)
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int n = 300;
+		StringBuilder sb = new StringBuilder(), reversed = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			String t = "x" + i + "^4 + -2*x" + i + "^2 + 0.5*x" + i + "*x" + ((i + 1) % n);
+			sb.append(i == 0 ? "" : " + ").append(t);
+			reversed.insert(0, t + (i == 0 ? "" : " + "));
+		}
+		Polynomial p = new Polynomial(sb.toString());
+
+		MinimizationCache cache = new MinimizationCache(100, 1000000L);
+		Vector x0 = new Vector(), x1 = new Vector();
+		for (int i = 0; i < n; i++) {
+			x0.set("x" + i, 0.5 + (i % 5) * 0.1);
+			x1.set("x" + i, -0.5 - (i % 3) * 0.1);
+		}
+
+		String[] jobs = { "first run", "same job", "new x0", "reordered" };
+		for (int job = 0; job < jobs.length; job++) {
+			LBFGSMinimizer m = new LBFGSMinimizer(); // as a pipeline would, one Minimizer per job
+			m.setMaxIter(1000);
+			m.setX0(job == 2 ? x1 : x0);
+			long start = System.nanoTime();
+			cache.minimize(m, job == 3 ? new Polynomial(reversed.toString()) : p);
+			System.out.format("%-10s %4d iterations, objective %.4f in %6.1f ms\n", jobs[job] + ":",
+					m.getNIter(), m.getLastObjVal(), (System.nanoTime() - start) / 1e6);
+		}
+		System.out.format("Results: %d hits, %d misses (hit rate %.2f); gradients: %d hits, %d misses\n",
+				cache.getHits(), cache.getMisses(), cache.getHitRate(), cache.getGradientHits(),
+				cache.getGradientMisses());
+		// Should print "Results: 2 hits, 2 misses (hit rate 0.50); gradients: 1 hits, 1 misses"
+
+		MinimizationCache small = new MinimizationCache(1, 1000000L);
+		LBFGSMinimizer m = new LBFGSMinimizer();
+		m.setX0(new Vector("{ x=0.0 }"));
+		small.minimize(m, new Polynomial("x^2 + -2*x"));
+		m.setX0(new Vector("{ y=0.0 }"));
+		small.minimize(m, new Polynomial("y^2 + -2*y"));
+		System.out.println("Evictions with one entry: " + small.getEvictions()); // Should print "Evictions with one entry: 1"
+
+		// A StochasticMinimizer does not rebuild the partials a warm start installed
+		// on it, so they must not be cached for the next Polynomial it minimizes
+		MinimizationCache warm = new MinimizationCache(100, 1000000L);
+		Polynomial p1 = new Polynomial("x^2 + -2*x + y^2 + -2*y"), p2 = new Polynomial("x^2 + 6*x + y^2 + 6*y");
+		Minimizer first = new Minimizer();
+		first.setX0(new Vector("{ x=0.0 y=0.0 }"));
+		warm.minimize(first, p1);
+		StochasticMinimizer s = new StochasticMinimizer();
+		s.setX0(new Vector("{ x=0.5 y=0.5 }"));
+		warm.minimize(s, p1); // gradient hit: installs the partials of p1 on s
+		warm.minimize(s, p2);
+		Minimizer last = new Minimizer();
+		last.setX0(new Vector("{ x=0.0 y=0.0 }"));
+		warm.minimize(last, p2);
+		System.out.println("Minimum of p2: " + last.getLastPoint()); // Should print "Minimum of p2: { x=-2.9997 y=-2.9997 }", not the minimum of p1
+
+		// Minimizers that differ only in their line search do not share results
+		Minimizer fixed = new Minimizer(), armijo = new Minimizer();
+		fixed.setX0(new Vector("{ x=0.0 y=0.0 }"));
+		armijo.setX0(new Vector("{ x=0.0 y=0.0 }"));
+		armijo.setLineSearch(new ArmijoLineSearch());
+		warm.minimize(fixed, p1);
+		warm.minimize(armijo, p1);
+		System.out.println("Iterations with a fixed step and with Armijo: " + fixed.getNIter() + ", " + armijo.getNIter()
+				+ " (" + warm.getHits() + " result hits)");
+		// Should print "Iterations with a fixed step and with Armijo: 77, 2 (1 result hits)": only the
+		// fixed step matches the first run on p1
+	}
+}
@@ -1,12 +1,20 @@
 package opt;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import poly.BytecodeCompiler;
+import poly.CompiledPolynomial;
+import poly.GradientEvaluator;
 import poly.Polynomial;
+import poly.PowerTable;
 import util.Vector;
 import util.VectorException;
 
@@ -18,17 +26,36 @@ import util.VectorException;
  */
 public class Minimizer {
 	
-	private double _eps;			// tolerance
-	private int    _maxIter;		// maximum number of iterations
-	private double _stepSize;		// step size alpha
-	private Vector _x0;	   		// starting point
-	private Vector _lastx; 		// last point found
-	private double _lastObjVal;		// last obj fn value found
-	private double _lastGradNorm;   // last gradient norm found
-	private long _compTime;			// computation time needed
-	private int _nIter;				// no. of iterations needed
-
-	private HashMap<String,Polynomial> _var2gradp; // cached Polynomials for gradient expressions
+	// Settings and results are protected so that other methods (NewtonMinimizer, ...)
+	// can subclass Minimizer and reuse its parameters, getters and printResults
+	protected double _eps;			// tolerance
+	protected int    _maxIter;		// maximum number of iterations
+	protected double _stepSize;		// step size alpha
+	protected Vector _x0;	   		// starting point
+	protected Vector _lastx; 		// last point found
+	protected double _lastObjVal;		// last obj fn value found
+	protected double _lastGradNorm;   // last gradient norm found
+	protected long _compTime;			// computation time needed
+	protected int _nIter;				// no. of iterations needed
+
+	protected HashMap<String,Polynomial> _var2gradp; // cached Polynomials for gradient expressions
+	protected PowerTable _powers;    // powers of the current point for the objective and _var2gradp
+	private Polynomial _partialsFor;        // Polynomial _var2gradp and _powers were built for
+
+	// Preallocated state for minimizeInPlace(...), rebuilt only when the Polynomial changes
+	private Polynomial _compiledFor;        // Polynomial the state below was built for
+	private List<String> _vars;             // variable order, _x[i] is the value of _vars.get(i)
+	private CompiledPolynomial _objc;       // compiled objective (also gives the gradient)
+	private GradientEvaluator _obje;        // evaluates objective and gradient: _objc or generated code
+	private double[] _x;                    // current point
+	private double[] _grad;                 // gradient at the current point
+	private double[] _dir;                  // search direction
+	private double[] _trial;                // scratch point for the line search
+	private LineSearch _lineSearch;         // chooses the step along _dir
+	private UpdateRule _updateRule;         // if not null, replaces the line search step
+	private QuadraticForm _quad;            // Q, b, c of the objective if it is quadratic, else null
+	private boolean _closedForm;            // solve quadratic objectives directly?
+	private boolean _generateCode;          // evaluate through BytecodeCompiler?
 
 	/** Default constructor -- you may want to add to it, but you don't have to
 	 * 
@@ -39,6 +66,8 @@ public class Minimizer {
 		_stepSize = 0.05;
 		_x0 = new Vector();
 		_lastx = new Vector();
+		_lineSearch = new FixedStepSearch();
+		_closedForm = true;
 	}
 	
 	// Getters -- we've filled these in since they are trivial
@@ -51,11 +80,19 @@ public class Minimizer {
 	public Vector getLastPoint() { return _lastx; }
 	public int getNIter()       { return _nIter; }
 	public long getCompTime()   { return _compTime; }
+	public LineSearch getLineSearch() { return _lineSearch; }
+	public UpdateRule getUpdateRule() { return _updateRule; }
+	public boolean getClosedForm()    { return _closedForm; }
+	public boolean getGenerateCode()  { return _generateCode; }
 	
 	// Setters -- we've filled these in since they are trivial
 	public void setEps(double e)      { _eps = e; }
 	public void setMaxIter(int m)     { _maxIter = m; }
 	public void setStepSize(double s) { _stepSize = s; }
+	public void setLineSearch(LineSearch ls) { _lineSearch = ls; } // used by minimize(...) and minimizeInPlace(...)
+	public void setUpdateRule(UpdateRule r)  { _updateRule = r; }  // used by minimize(...) and minimizeInPlace(...), null for plain descent
+	public void setClosedForm(boolean c)     { _closedForm = c; }  // used by minimizeInPlace(...) only, minimize(...) always iterates
+	public void setGenerateCode(boolean g)   { _generateCode = g; _compiledFor = null; } // used by minimizeInPlace(...)
 	
 	/** Set the initial starting point of gradient descent
 	 * 
@@ -77,49 +114,150 @@ public class Minimizer {
      }
      
      public void buildPartialDerivatives(Polynomial p) throws Exception{
-         _var2gradp = new HashMap<String, Polynomial>();
-         TreeSet<String> allVars = p.getAllVars();
-         Iterator<String> iterate = allVars.iterator();
-         while(iterate.hasNext()){
-             String var = iterate.next();
-             _var2gradp.put(var, p.differentiate(var));
-         }
+         _var2gradp = p.gradient();
+         if ((long)p.getNumTerms() * _var2gradp.size() >= Polynomial.getParallelThreshold())
+             canonicalizePartialsParallel();
+         else
+             for (Entry<String, Polynomial> enter : _var2gradp.entrySet())
+                 enter.setValue(enter.getValue().canonicalize());
+         _powers = new PowerTable(p, _var2gradp);
+         _partialsFor = p;
      }
+
+	/** Builds the partial derivatives of p unless they were already built (or
+	 *  installed by usePartialDerivatives(...)) for this same Polynomial
+	 *
+	 * @param p
+	 * @throws Exception
+	 */
+	protected void ensurePartialDerivatives(Polynomial p) throws Exception {
+		if (p != _partialsFor)
+			buildPartialDerivatives(p);
+	}
+
+	/** Installs partials as the partial derivatives of p (e.g. cached for an equal
+	 *  Polynomial by MinimizationCache) so that minimizing p does not build them.
+	 *  The map is only read, so one map may be shared by several Minimizers.
+	 *
+	 * @param p
+	 * @param partials -- a partial for every variable of p
+	 */
+	void usePartialDerivatives(Polynomial p, HashMap<String,Polynomial> partials) {
+		_var2gradp = partials;
+		_powers = new PowerTable(p, partials);
+		_partialsFor = p;
+	}
+
+	/** Returns the settings other than eps, maxIter, stepSize and x0 that change
+	 *  the result of a run: the class and parameters (by toString()) of the line
+	 *  search and update rule, and the closed-form flag.  Subclasses append their
+	 *  own settings.  MinimizationCache keys results by this string.
+	 *
+	 */
+	String getStrategySettings() {
+		return "lineSearch=" + describe(_lineSearch) + ", updateRule=" + describe(_updateRule)
+				+ ", closedForm=" + _closedForm;
+	}
+
+	/** Returns the class and toString() of a strategy object, or "none" */
+	static String describe(Object strategy) {
+		return strategy == null ? "none" : strategy.getClass().getName() + " " + strategy;
+	}
+
+	/** Returns whether _var2gradp holds the partial derivatives of p (and not those
+	 *  of an earlier Polynomial that a subclass did not rebuild them for)
+	 *
+	 * @param p
+	 */
+	boolean hasPartialDerivatives(Polynomial p) {
+		return _var2gradp != null && _partialsFor == p;
+	}
+
+	/** Canonicalizes the partials in _var2gradp concurrently on the common
+	 *  ForkJoinPool, one task per variable.  The results are the same as the
+	 *  sequential build.
+	 *
+	 * @throws Exception
+	 */
+	private void canonicalizePartialsParallel() throws Exception {
+		List<Entry<String, Polynomial>> entries = new ArrayList<Entry<String, Polynomial>>(_var2gradp.entrySet());
+		List<Callable<Polynomial>> tasks = new ArrayList<Callable<Polynomial>>();
+		for (final Entry<String, Polynomial> enter : entries)
+			tasks.add(new Callable<Polynomial>() {
+				public Polynomial call() throws Exception {
+					return enter.getValue().canonicalize();
+				}
+			});
+		try {
+			List<Future<Polynomial>> results = ForkJoinPool.commonPool().invokeAll(tasks);
+			for (int i = 0; i < entries.size(); i++)
+				entries.get(i).setValue(results.get(i).get());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception)e.getCause();
+			throw e;
+		}
+	}
      
      public Vector calculateGradient(Vector lastpointFound) throws Exception{
-         Vector v = new Vector();
-         for(Entry<String, Polynomial> enter: _var2gradp.entrySet())
-             v.set(enter.getKey(), enter.getValue().evaluate(lastpointFound));
-         return v;
-             
+         _powers.setPoint(lastpointFound);
+         return gradientAtPowers();
      }
+
+	/** Evaluates every cached partial at the point currently in _powers
+	 *
+	 * @throws Exception
+	 */
+	private Vector gradientAtPowers() throws Exception {
+		Vector v = new Vector();
+		for (Entry<String, Polynomial> enter : _var2gradp.entrySet())
+			v.set(enter.getKey(), enter.getValue().evaluate(_powers));
+		return v;
+	}
      
      
 
 	/** Run the steepest descent algorithm -- see handout though some pseudocode is provided below.
+	 *  Steps are getStepSize() times the negative gradient unless an UpdateRule
+	 *  or another LineSearch is set (see setUpdateRule(...), setLineSearch(...)),
+	 *  which then moves the point as in minimizeInPlace(...).  Unlike
+	 *  minimizeInPlace(...) it never solves a quadratic in closed form (see
+	 *  setClosedForm(...)), so each iteration is printed.
 	 * 
 	 * @param p Polynomial to minimize
 	 * @throws Exception
 	 */
 	public void minimize(Polynomial p) throws Exception {
          
-            buildPartialDerivatives(p);
+            ensurePartialDerivatives(p);
          
+ 
              _nIter = 0;
              long start = System . currentTimeMillis ();
+             boolean fixedStep = _updateRule == null && _lineSearch instanceof FixedStepSearch;
+             if (!fixedStep)
+                 prepareInPlace(p); // the line search evaluates the compiled objective
+             if (_updateRule != null)
+                 _updateRule.reset(_x.length);
              
              _lastx.clear();
              _lastx.setAll(_x0);
-             _lastObjVal = p.evaluate(_x0);
+             // The objective and the gradient share the powers of each point
+             _powers.setPoint(_lastx);
+             _lastObjVal = p.evaluate(_powers);
              
              _lastGradNorm = Double.MAX_VALUE;
              
              while(getNIter() < getMaxIter() && areWeFarFromMinimum()){
                  _nIter++;
-                 Vector gradientAtLastPoint = calculateGradient(_lastx);
+                 Vector gradientAtLastPoint = gradientAtPowers();
                  _lastGradNorm = gradientAtLastPoint.computeL2Norm();
-                 _lastx = _lastx.sum(gradientAtLastPoint.scalarMult(-_stepSize));
-                 _lastObjVal = p.evaluate(_lastx);
+                 if (fixedStep)
+                     _lastx = _lastx.sum(gradientAtLastPoint.scalarMult(-_stepSize));
+                 else
+                     step(gradientAtLastPoint);
+                 _powers.setPoint(_lastx);
+                 _lastObjVal = p.evaluate(_powers);
                  System.out.format("At iteration %d: %s objective value = %.3f\n", _nIter, _lastx, _lastObjVal);
              }
 			
@@ -127,6 +265,217 @@ public class Minimizer {
 		_compTime = System.currentTimeMillis()-start;
 	}
 	
+	/** Moves _lastx by the UpdateRule, or else along the negative gradient by the
+	 *  step the LineSearch chooses, using the buffers of minimizeInPlace(...)
+	 *
+	 * @param gradient -- at _lastx
+	 * @throws Exception
+	 */
+	private void step(Vector gradient) throws Exception {
+		for (int i = 0; i < _x.length; i++) {
+			_x[i] = _lastx.getValAt(_vars.get(i));
+			_grad[i] = gradient.getValAt(_vars.get(i));
+			_dir[i] = -_grad[i];
+		}
+		if (_updateRule != null)
+			_updateRule.update(_x, _grad, _stepSize);
+		else {
+			double step = _lineSearch.step(_obje, _x, _lastObjVal, _grad, _dir, _trial, _stepSize);
+			for (int i = 0; i < _x.length; i++)
+				_x[i] += step * _dir[i];
+		}
+		storeLastPoint(_vars, _x);
+	}
+
+	/** Run the same steepest descent as minimize(...) but on preallocated double[]
+	 *  point and gradient buffers updated in place, with the objective and gradient
+	 *  computed together by a compiled objective.  The step along the negative
+	 *  gradient is chosen by the LineSearch (a fixed step of getStepSize() by
+	 *  default), unless an UpdateRule (momentum, Nesterov, AdaGrad, Adam) is set,
+	 *  in which case the rule moves the point using getStepSize() as its learning
+	 *  rate.
+	 *
+	 *  If every term has total degree at most 2 (and closed form is enabled, the
+	 *  default) the minimum is instead found by solving Q x = -b directly, see
+	 *  QuadraticForm, falling back to descent if Q is not positive definite.
+	 *
+	 *  Nothing is printed per iteration and, once the buffers have been
+	 *  built for p (the first call with p), no objects are allocated per iteration.
+	 *  Results are available through the usual getters.
+	 *
+	 *  Variables of x0 that do not appear in p are carried through unchanged.
+	 *
+	 * @param p Polynomial to minimize
+	 * @throws Exception if x0 does not assign every variable of p
+	 */
+	public void minimizeInPlace(Polynomial p) throws Exception {
+
+		long start = System.currentTimeMillis();
+		prepareInPlace(p);
+		runInPlace(start);
+	}
+
+	/** Same as minimizeInPlace(Polynomial) for an objective given only as a
+	 *  GradientEvaluator over the variable order vars -- e.g. a PackedPolynomial
+	 *  opened by PolyBinaryFormat -- so nothing needs to be parsed, compiled or
+	 *  differentiated first.  Quadratic objectives are not solved in closed form.
+	 *
+	 * @param f -- objective, point[i] is the value of vars.get(i)
+	 * @param vars
+	 * @throws Exception if x0 does not assign every variable of vars
+	 */
+	public void minimizeInPlace(GradientEvaluator f, List<String> vars) throws Exception {
+
+		long start = System.currentTimeMillis();
+		if (f != _obje || !vars.equals(_vars)) {
+			_compiledFor = null;
+			_objc = null;
+			_quad = null;
+			_obje = f;
+			_vars = new ArrayList<String>(vars);
+			allocateInPlace();
+		}
+		runInPlace(start);
+	}
+
+	/** The iterations of minimizeInPlace(...) once _obje and the buffers are set up */
+	private void runInPlace(long start) throws Exception {
+
+		loadStartingPoint(_vars, _x);
+		if (_updateRule != null)
+			_updateRule.reset(_x.length);
+
+		// Objective and gradient come from one fused pass over the terms; the
+		// gradient computed with the new objective value is the one used next iteration
+		_nIter = 0;
+		_lastObjVal = _obje.evaluateWithGradient(_x, _grad);
+		_lastGradNorm = Double.MAX_VALUE;
+
+		// Quadratic objective: solve for the minimum directly (counted as one
+		// iteration); descent only continues if Q is not positive definite or
+		// the solve was not accurate enough
+		if (_closedForm && _quad != null) {
+			boolean solved = _quad.solve(_x);
+			if (!solved)
+				loadStartingPoint(_vars, _x);
+			_lastObjVal = _obje.evaluateWithGradient(_x, _grad);
+			if (solved) {
+				_nIter = 1;
+				double norm2 = 0d;
+				for (int i = 0; i < _grad.length; i++)
+					norm2 += _grad[i] * _grad[i];
+				_lastGradNorm = Math.sqrt(norm2);
+			}
+		}
+
+		while (getNIter() < getMaxIter() && areWeFarFromMinimum()) {
+			_nIter++;
+			double norm2 = 0d;
+			for (int i = 0; i < _grad.length; i++)
+				norm2 += _grad[i] * _grad[i];
+			_lastGradNorm = Math.sqrt(norm2);
+			if (_updateRule != null)
+				_updateRule.update(_x, _grad, _stepSize);
+			else {
+				for (int i = 0; i < _x.length; i++)
+					_dir[i] = -_grad[i];
+				double step = _lineSearch.step(_obje, _x, _lastObjVal, _grad, _dir, _trial, _stepSize);
+				for (int i = 0; i < _x.length; i++)
+					_x[i] += step * _dir[i];
+			}
+			_lastObjVal = _obje.evaluateWithGradient(_x, _grad);
+		}
+
+		storeLastPoint(_vars, _x);
+		_compTime = System.currentTimeMillis() - start;
+	}
+
+	/** Builds (once per Polynomial) the compiled objective and the point/gradient
+	 *  buffers used by minimizeInPlace(...).  The gradient is evaluated by the
+	 *  compiled objective itself, so no symbolic partials are needed here -- unless
+	 *  code generation is on (setGenerateCode(true)): then objective and cached
+	 *  partials are turned into bytecode by BytecodeCompiler, which falls back to
+	 *  the compiled objective for very large polynomials.
+	 *
+	 * @param p
+	 * @throws Exception
+	 */
+	private void prepareInPlace(Polynomial p) throws Exception {
+		if (p == _compiledFor)
+			return;
+		useCompiled(p, p.canonicalize().compile(new ArrayList<String>(p.getAllVars())));
+		if (_generateCode) {
+			ensurePartialDerivatives(p);
+			List<Polynomial> partials = new ArrayList<Polynomial>();
+			for (String var : _vars)
+				partials.add(_var2gradp.get(var));
+			_obje = BytecodeCompiler.compile(_objc, Polynomial.compile(partials, _vars));
+		}
+	}
+
+	/** Installs an already compiled objective objc for p so that minimizeInPlace(p)
+	 *  does not compile p again.  CompiledPolynomials are immutable, so one objc
+	 *  can be shared by many Minimizers (see MultiStartMinimizer).
+	 *
+	 * @param p
+	 * @param objc -- compiled form of p
+	 */
+	void useCompiled(Polynomial p, CompiledPolynomial objc) {
+		useCompiled(p, objc, QuadraticForm.extract(objc));
+	}
+
+	/** As useCompiled(p, objc), with quad = QuadraticForm.extract(objc) shared
+	 *  as well, so that Q is factored once for all the Minimizers
+	 *
+	 * @param p
+	 * @param objc -- compiled form of p
+	 * @param quad -- QuadraticForm.extract(objc)
+	 */
+	void useCompiled(Polynomial p, CompiledPolynomial objc, QuadraticForm quad) {
+		_vars = objc.getVars();
+		_objc = objc;
+		_obje = objc;
+		allocateInPlace();
+		_quad = quad;
+		_compiledFor = p;
+	}
+
+	private void allocateInPlace() {
+		_x = new double[_vars.size()];
+		_grad = new double[_vars.size()];
+		_dir = new double[_vars.size()];
+		_trial = new double[_vars.size()];
+	}
+
+	/** Copies the starting point _x0 into x, where x[i] is the value of vars.get(i)
+	 *
+	 * @param vars
+	 * @param x
+	 * @throws VectorException if x0 does not assign every variable of vars
+	 */
+	protected void loadStartingPoint(List<String> vars, double[] x) throws VectorException {
+		for (int i = 0; i < x.length; i++) {
+			String var = vars.get(i);
+			if (!_x0.getKeySet().contains(var))
+				throw new VectorException("Starting point has no value for " + var);
+			x[i] = _x0.getValAt(var);
+		}
+	}
+
+	/** Copies a point buffer x (x[i] is the value of vars.get(i)) back into _lastx,
+	 *  keeping any other variables of x0 unchanged
+	 *
+	 * @param vars
+	 * @param x
+	 * @throws VectorException
+	 */
+	protected void storeLastPoint(List<String> vars, double[] x) throws VectorException {
+		_lastx.clear();
+		_lastx.setAll(_x0);
+		for (int i = 0; i < x.length; i++)
+			_lastx.set(vars.get(i), x[i]);
+	}
+
 	/** Print minimization result details
 	 * 
 	 * @param ps - usually System.out
@@ -187,5 +536,96 @@ public class Minimizer {
 		// [Optional] View the cached gradient expressions if you've cached them
 		// for (String var : p.getAllVars())
 		//	  System.out.println("Gradient of " + var + " is " + m._var2gradp.get(var));
+
+		// Same problem with the in-place mode (no per-iteration output)
+		m.minimizeInPlace(p);
+		System.out.format("In place:       %s objective value = %.3f\n", m._lastx, m._lastObjVal);
+		// Should print "In place:       { x=2.0000 } objective value = 0.000"
+
+		// Line search modes on x^2 + -4*x + 4 (files/poly1.txt) from x=1, default alpha=0.05
+		Polynomial quad = new Polynomial("x^2 + -4*x + 4");
+		Minimizer ls = new Minimizer();
+		ls.setX0(x0);
+		ls.setClosedForm(false); // would solve this quadratic directly
+		for (LineSearch search : new LineSearch[] { new FixedStepSearch(), new ArmijoLineSearch(),
+				new ExactQuadraticLineSearch() }) {
+			ls.setLineSearch(search);
+			ls.minimizeInPlace(quad);
+			System.out.format("%-60s %3d iterations, %s\n", search, ls.getNIter(), ls.getLastPoint());
+		}
+		// Should print 74 iterations ending at { x=1.9996 } (stopped by eps), then 2 and 2
+		// iterations ending at { x=2.0000 }
+		ls.setLineSearch(new ArmijoLineSearch());
+		ls.minimize(quad);
+		System.out.format("%-60s %3d iterations, %s\n", "minimize(...) with Armijo", ls.getNIter(), ls.getLastPoint());
+		// Should print the per-iteration output and 2 iterations ending at { x=2.0000 }
+		ls.setClosedForm(true);
+		ls.minimizeInPlace(quad);
+		System.out.format("%-60s %3d iterations, %s\n", "closed form", ls.getNIter(), ls.getLastPoint());
+		// Should print 1 iteration ending at { x=2.0000 }
+
+		// Update rules on the ill-conditioned x^2 + 100*y^2 (needs a small alpha for stability)
+		Polynomial illCond = new Polynomial("x^2 + 100*y^2");
+		Minimizer ur = new Minimizer();
+		ur.setX0(new Vector("{ x=1.0 y=1.0 }"));
+		ur.setMaxIter(10000);
+		ur.setStepSize(0.005);
+		ur.setClosedForm(false); // would solve this quadratic directly
+		for (UpdateRule rule : new UpdateRule[] { null, new MomentumRule(), new NesterovRule() }) {
+			ur.setUpdateRule(rule);
+			ur.minimizeInPlace(illCond);
+			System.out.format("%-25s %4d iterations, %s\n", rule == null ? "plain descent" : rule, ur.getNIter(), ur.getLastPoint());
+		}
+		ur.setStepSize(0.1);
+		for (UpdateRule rule : new UpdateRule[] { new AdaGradRule(), new AdamRule() }) {
+			ur.setUpdateRule(rule);
+			ur.minimizeInPlace(illCond);
+			System.out.format("%-25s %4d iterations, %s\n", rule, ur.getNIter(), ur.getLastPoint());
+		}
+
+		// Generated bytecode for objective and gradient takes the same steps as the compiled objective
+		Polynomial quartic = new Polynomial("x^4 + -4*x^2 + x + y^4 + y^2 + x*y");
+		Minimizer gen = new Minimizer();
+		gen.setX0(new Vector("{ x=1.0 y=1.0 }"));
+		gen.setLineSearch(new ArmijoLineSearch());
+		gen.minimizeInPlace(quartic);
+		String compiled = gen.getNIter() + " iterations, " + gen.getLastPoint();
+		gen.setGenerateCode(true);
+		gen.minimizeInPlace(quartic);
+		System.out.println("Generated code: " + gen.getNIter() + " iterations, " + gen.getLastPoint()
+				+ " (compiled: " + compiled + ")");
+		// Should print the same iterations and point twice
+
+		// Allocation check for the in-place mode: once warmed up, a run of 10000
+		// iterations should allocate no more than a run of 100 iterations
+		Polynomial p2 = new Polynomial("x^2 + y^2 + -4*x + -4*y + 8");
+		m.setX0(new Vector("{ x=1.0 y=1.0 }"));
+		m.setEps(-1.0); // never converges, always runs maxIter iterations
+		m.setMaxIter(100);
+		m.minimizeInPlace(p2); // warm up
+		long shortRun = allocatedBytes(m, p2);
+		m.setMaxIter(10000);
+		long longRun = allocatedBytes(m, p2);
+		long perIter = Math.max(0, (longRun - shortRun) / 9900);
+		System.out.println("Bytes allocated per iteration: " + perIter);
+		// Should print "Bytes allocated per iteration: 0"
+		if (perIter > 8)
+			throw new Exception("minimizeInPlace(...) allocates " + perIter + " bytes per iteration");
+	}
+
+	/** Returns the number of bytes allocated by this thread while running
+	 *  m.minimizeInPlace(p) (relies on the HotSpot ThreadMXBean extension)
+	 *
+	 * @param m
+	 * @param p
+	 * @throws Exception
+	 */
+	private static long allocatedBytes(Minimizer m, Polynomial p) throws Exception {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)
+				java.lang.management.ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		long before = bean.getThreadAllocatedBytes(id);
+		m.minimizeInPlace(p);
+		return bean.getThreadAllocatedBytes(id) - before;
 	}
 }
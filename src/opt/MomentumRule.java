@@ -0,0 +1,35 @@
+package opt;
+
+/** Heavy-ball momentum:
+ *
+ *    v = beta * v - alpha * grad,   x = x + v
+ *
+ */
+public class MomentumRule implements UpdateRule {
+
+	private double _beta;     // momentum coefficient, in [0,1)
+	private double[] _v;      // velocity
+
+	public MomentumRule() {
+		this(0.9);
+	}
+
+	public MomentumRule(double beta) {
+		_beta = beta;
+	}
+
+	public void reset(int n) {
+		_v = RuleState.zeros(_v, n);
+	}
+
+	public void update(double[] x, double[] grad, double stepSize) {
+		for (int i = 0; i < x.length; i++) {
+			_v[i] = _beta * _v[i] - stepSize * grad[i];
+			x[i] += _v[i];
+		}
+	}
+
+	public String toString() {
+		return "momentum (beta=" + _beta + ")";
+	}
+}
@@ -0,0 +1,149 @@
+package opt;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import poly.CompiledPolynomial;
+import poly.Polynomial;
+import util.Vector;
+
+/** Runs steepest descent on one Polynomial from many starting points concurrently.
+ *  The objective (and with it the gradient) is compiled once and shared by all
+ *  starts; each start gets its own Minimizer running in minimizeInPlace mode, so
+ *  the runs share no mutable state.  Useful for non-convex objectives where the
+ *  minimum found depends on the starting point.
+ *
+ */
+public class MultiStartMinimizer {
+
+	private double _eps;			// tolerance
+	private int    _maxIter;		// maximum number of iterations
+	private double _stepSize;		// step size alpha
+	private LineSearch _lineSearch;	// step size strategy, shared by all starts (must be stateless)
+	private ForkJoinPool _pool;		// pool the starts run on
+	private List<Minimizer> _results; // one finished Minimizer per start, in start order
+	private Minimizer _best;		// result with the lowest objective value
+	private long _compTime;			// computation time needed
+
+	/** Default constructor -- same defaults as Minimizer, runs on the common pool
+	 *
+	 */
+	public MultiStartMinimizer() {
+		Minimizer defaults = new Minimizer();
+		_eps = defaults.getEps();
+		_maxIter = defaults.getMaxIter();
+		_stepSize = defaults.getStepSize();
+		_lineSearch = defaults.getLineSearch();
+		_pool = ForkJoinPool.commonPool();
+		_results = new ArrayList<Minimizer>();
+	}
+
+	// Getters
+	public double getEps()      { return _eps; }
+	public int getMaxIter()     { return _maxIter; }
+	public double getStepSize() { return _stepSize; }
+	public LineSearch getLineSearch() { return _lineSearch; }
+	public List<Minimizer> getResults() { return _results; }
+	public Minimizer getBest()  { return _best; }
+	public long getCompTime()   { return _compTime; }
+
+	// Setters
+	public void setEps(double e)      { _eps = e; }
+	public void setMaxIter(int m)     { _maxIter = m; }
+	public void setStepSize(double s) { _stepSize = s; }
+	public void setLineSearch(LineSearch ls) { _lineSearch = ls; }
+	public void setPool(ForkJoinPool pool) { _pool = pool; }
+
+	/** Minimizes p from every starting point in x0s concurrently.  Afterwards
+	 *  getResults() holds one Minimizer per start (in the order of x0s) and
+	 *  getBest() the one that reached the lowest objective value.
+	 *
+	 * @param p Polynomial to minimize
+	 * @param x0s starting points
+	 * @throws Exception if any of the runs failed
+	 */
+	public void minimize(Polynomial p, List<Vector> x0s) throws Exception {
+		long start = System.currentTimeMillis();
+
+		// One shared, immutable compiled objective for all starts, and one quadratic
+		// form (if p is quadratic) so that Q is factored once
+		final Polynomial poly = p;
+		final CompiledPolynomial objc = p.canonicalize().compile(new ArrayList<String>(p.getAllVars()));
+		QuadraticForm quad = QuadraticForm.extract(objc);
+
+		List<Callable<Minimizer>> tasks = new ArrayList<Callable<Minimizer>>();
+		for (Vector x0 : x0s) {
+			final Minimizer m = new Minimizer();
+			m.setEps(_eps);
+			m.setMaxIter(_maxIter);
+			m.setStepSize(_stepSize);
+			m.setLineSearch(_lineSearch);
+			m.setX0(x0);
+			m.useCompiled(poly, objc, quad);
+			tasks.add(new Callable<Minimizer>() {
+				public Minimizer call() throws Exception {
+					m.minimizeInPlace(poly);
+					return m;
+				}
+			});
+		}
+
+		_results = new ArrayList<Minimizer>();
+		_best = null;
+		try {
+			for (Future<Minimizer> f : _pool.invokeAll(tasks)) {
+				Minimizer m = f.get();
+				_results.add(m);
+				if (_best == null || m.getLastObjVal() < _best.getLastObjVal())
+					_best = m;
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception)e.getCause();
+			throw e;
+		}
+		_compTime = System.currentTimeMillis() - start;
+	}
+
+	/** Print the result of each start and the best one
+	 *
+	 * @param ps - usually System.out
+	 */
+	public void printResults(PrintStream ps) {
+		ps.println();
+		for (int i = 0; i < _results.size(); i++) {
+			Minimizer m = _results.get(i);
+			ps.format("Start %d: %s -> %s objective value = %.3f (%d iterations)\n",
+					i, m.getX0(), m.getLastPoint(), m.getLastObjVal(), m.getNIter());
+		}
+		if (_best != null)
+			ps.format("Best:    %s objective value = %.3f\n", _best.getLastPoint(), _best.getLastObjVal());
+		ps.println("Time elapsed: " + getCompTime() + " ms");
+		ps.println();
+	}
+
+	/** An example on a non-convex objective with two local minima
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		// x^4 - 4x^2 + x has a local minimum near x=1.35 and the global one near x=-1.47
+		Polynomial p = new Polynomial("x^4 + -4*x^2 + x");
+		List<Vector> x0s = new ArrayList<Vector>();
+		for (double x = -2.0; x <= 2.0; x += 1.0)
+			x0s.add(new Vector("{ x=" + x + " }"));
+
+		MultiStartMinimizer msm = new MultiStartMinimizer();
+		msm.setStepSize(0.01);
+		msm.setMaxIter(1000);
+		msm.minimize(p, x0s);
+		msm.printResults(System.out);
+		// Best should be { x=-1.4730 } objective value = -5.444
+	}
+}
@@ -0,0 +1,37 @@
+package opt;
+
+/** Nesterov accelerated gradient, in the form that only needs the gradient at the
+ *  current point (x is tracked at the look-ahead position):
+ *
+ *    v' = mu * v - alpha * grad,   x = x - mu * v + (1 + mu) * v',   v = v'
+ *
+ */
+public class NesterovRule implements UpdateRule {
+
+	private double _mu;       // momentum coefficient, in [0,1)
+	private double[] _v;      // velocity
+
+	public NesterovRule() {
+		this(0.9);
+	}
+
+	public NesterovRule(double mu) {
+		_mu = mu;
+	}
+
+	public void reset(int n) {
+		_v = RuleState.zeros(_v, n);
+	}
+
+	public void update(double[] x, double[] grad, double stepSize) {
+		for (int i = 0; i < x.length; i++) {
+			double v = _mu * _v[i] - stepSize * grad[i];
+			x[i] += -_mu * _v[i] + (1d + _mu) * v;
+			_v[i] = v;
+		}
+	}
+
+	public String toString() {
+		return "Nesterov (mu=" + _mu + ")";
+	}
+}
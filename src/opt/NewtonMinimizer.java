@@ -0,0 +1,272 @@
+package opt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import poly.CompiledPolynomial;
+import poly.Polynomial;
+import util.LinearSolver;
+import util.Vector;
+
+/** Newton's method (optionally damped) for minimizing a Polynomial.  On top of
+ *  the symbolic partials cached by buildPartialDerivatives(...) this also builds
+ *  and caches the symbolic Hessian by differentiating each partial once more.
+ *  Each iteration evaluates gradient and Hessian and solves
+ *
+ *    H(x) d = -grad(x)
+ *
+ *  with a dense Cholesky factorization when there are at most getDenseLimit()
+ *  variables and with conjugate gradient on the sparse Hessian otherwise.  If H
+ *  is not positive definite the iteration falls back to a steepest descent step.
+ *  Pure Newton takes the full step x + d; damped Newton steps along d with the
+ *  line search of setLineSearch(...), by default Armijo backtracking.
+ *
+ *  Uses the eps, maxIter and x0 settings of Minimizer (step size alpha only for
+ *  the steepest descent fallback) and reports through the same getters and
+ *  printResults(...).
+ *
+ */
+public class NewtonMinimizer extends Minimizer {
+
+	private boolean _damped;		// backtrack along the Newton direction?
+	private int _denseLimit;		// max no. of variables for the dense Cholesky solve
+
+	// Symbolic Hessian and compiled state, rebuilt only when the Polynomial changes
+	private Polynomial _builtFor;	// Polynomial the state below was built for
+	private HashMap<String,HashMap<String,Polynomial>> _var2hessp; // cached Hessian entries, upper triangle, nonzero only
+	private List<String> _vars;		// variable order
+	private CompiledPolynomial _objc;	// compiled objective
+	private CompiledPolynomial[] _gradc;	// compiled partials, in _vars order
+	private int[] _hRow, _hCol;		// nonzero Hessian entries (row <= col)
+	private CompiledPolynomial[] _hessc;	// compiled Hessian entries
+	private double[] _hVal;			// Hessian entries at the current point
+
+	/** Default constructor: damped Newton
+	 *
+	 */
+	public NewtonMinimizer() {
+		this(true);
+	}
+
+	/** Constructor
+	 *
+	 * @param damped -- false for pure Newton (always the full step)
+	 */
+	public NewtonMinimizer(boolean damped) {
+		super();
+		_damped = damped;
+		_denseLimit = 500;
+		setLineSearch(new ArmijoLineSearch()); // used when damped
+	}
+
+	public boolean isDamped()            { return _damped; }
+	public int getDenseLimit()           { return _denseLimit; }
+	public void setDamped(boolean d)     { _damped = d; }
+	public void setDenseLimit(int limit) { _denseLimit = limit; }
+
+	@Override
+	String getStrategySettings() {
+		return super.getStrategySettings() + ", damped=" + _damped + ", denseLimit=" + _denseLimit;
+	}
+
+	/** Returns the cached symbolic Hessian entry d^2 p / d var1 d var2 (a zero
+	 *  Polynomial if it is identically zero).  Only valid after minimize(p).
+	 *
+	 * @param var1
+	 * @param var2
+	 * @throws IllegalStateException if no Hessian was built yet (see buildHessian(...))
+	 */
+	public Polynomial getHessianEntry(String var1, String var2) {
+		if (_var2hessp == null)
+			throw new IllegalStateException("No Hessian yet: call minimize(p) or buildHessian(p) first");
+		if (var1.compareTo(var2) > 0)
+			return getHessianEntry(var2, var1);
+		HashMap<String,Polynomial> row = _var2hessp.get(var1);
+		Polynomial h = row == null ? null : row.get(var2);
+		return h == null ? new Polynomial() : h;
+	}
+
+	/** Builds (once per Polynomial) the symbolic partials and Hessian, and their
+	 *  compiled forms (compiled together, so the variable index is built once).
+	 *
+	 * @param p
+	 * @throws Exception
+	 */
+	public void buildHessian(Polynomial p) throws Exception {
+		if (p == _builtFor)
+			return;
+		ensurePartialDerivatives(p);
+		_vars = new ArrayList<String>(p.getAllVars());
+		int n = _vars.size();
+		List<Polynomial> polys = new ArrayList<Polynomial>(); // objective, partials, Hessian entries
+		polys.add(p.canonicalize());
+		for (String var : _vars)
+			polys.add(_var2gradp.get(var));
+		_var2hessp = new HashMap<String,HashMap<String,Polynomial>>();
+		HashMap<String,Integer> var2index = new HashMap<String,Integer>();
+		for (int i = 0; i < n; i++)
+			var2index.put(_vars.get(i), i);
+		ArrayList<Integer> rows = new ArrayList<Integer>(), cols = new ArrayList<Integer>();
+		for (int i = 0; i < n; i++) {
+			Polynomial gradp = _var2gradp.get(_vars.get(i));
+			HashMap<String,Polynomial> row = new HashMap<String,Polynomial>();
+			for (String var2 : gradp.getAllVars()) {
+				int j = var2index.get(var2);
+				if (j < i)
+					continue; // symmetric, keep the upper triangle
+				Polynomial h = gradp.differentiate(var2).canonicalize();
+				if (h.getNumTerms() == 0)
+					continue;
+				row.put(var2, h);
+				rows.add(i);
+				cols.add(j);
+				polys.add(h);
+			}
+			_var2hessp.put(_vars.get(i), row);
+		}
+		_hRow = new int[rows.size()];
+		_hCol = new int[rows.size()];
+		for (int k = 0; k < _hRow.length; k++) {
+			_hRow[k] = rows.get(k);
+			_hCol[k] = cols.get(k);
+		}
+		CompiledPolynomial[] compiled = Polynomial.compile(polys, _vars);
+		_objc = compiled[0];
+		_gradc = Arrays.copyOfRange(compiled, 1, n + 1);
+		_hessc = Arrays.copyOfRange(compiled, n + 1, compiled.length);
+		_hVal = new double[_hessc.length];
+		_builtFor = p;
+	}
+
+	/** Run (damped) Newton's method
+	 *
+	 * @param p Polynomial to minimize
+	 * @throws Exception if x0 does not assign every variable of p
+	 */
+	@Override
+	public void minimize(Polynomial p) throws Exception {
+
+		long start = System.currentTimeMillis();
+		buildHessian(p);
+
+		int n = _vars.size();
+		double[] x = new double[n], grad = new double[n], dir = new double[n], trial = new double[n];
+		double[][] h = null, l = null;
+		if (n <= _denseLimit) {
+			h = new double[n][n];
+			l = new double[n][n];
+		}
+		loadStartingPoint(_vars, x);
+
+		_nIter = 0;
+		_lastObjVal = _objc.evaluate(x);
+		_lastGradNorm = Double.MAX_VALUE;
+
+		while (getNIter() < getMaxIter() && areWeFarFromMinimum()) {
+			_nIter++;
+			double norm2 = 0d;
+			for (int i = 0; i < n; i++) {
+				grad[i] = _gradc[i].evaluate(x);
+				norm2 += grad[i] * grad[i];
+			}
+			_lastGradNorm = Math.sqrt(norm2);
+			for (int k = 0; k < _hessc.length; k++)
+				_hVal[k] = _hessc[k].evaluate(x);
+
+			boolean newton = h != null ? solveDense(h, l, grad, dir) : solveCG(grad, dir);
+			if (!newton) // H not positive definite: steepest descent step instead
+				for (int i = 0; i < n; i++)
+					dir[i] = -grad[i];
+			double step = _damped ? getLineSearch().step(_objc, x, _lastObjVal, grad, dir, trial, _stepSize)
+					: (newton ? 1d : _stepSize);
+
+			for (int i = 0; i < n; i++)
+				x[i] += step * dir[i];
+			_lastObjVal = _objc.evaluate(x);
+		}
+
+		storeLastPoint(_vars, x);
+		_compTime = System.currentTimeMillis() - start;
+	}
+
+	/** Solves H dir = -grad by dense Cholesky
+	 *
+	 * @return false if H is not positive definite
+	 */
+	private boolean solveDense(double[][] h, double[][] l, double[] grad, double[] dir) {
+		for (int i = 0; i < h.length; i++)
+			Arrays.fill(h[i], 0d);
+		for (int k = 0; k < _hVal.length; k++) {
+			h[_hRow[k]][_hCol[k]] = _hVal[k];
+			h[_hCol[k]][_hRow[k]] = _hVal[k];
+		}
+		if (!LinearSolver.cholesky(h, l))
+			return false;
+		for (int i = 0; i < grad.length; i++)
+			dir[i] = -grad[i];
+		LinearSolver.choleskySolve(l, dir, dir);
+		return true;
+	}
+
+	/** Solves H dir = -grad by conjugate gradient on the sparse Hessian
+	 *
+	 * @return false if H is not positive definite
+	 */
+	private boolean solveCG(double[] grad, double[] dir) {
+		double[] rhs = new double[grad.length];
+		for (int i = 0; i < grad.length; i++) {
+			rhs[i] = -grad[i];
+			dir[i] = 0d;
+		}
+		LinearSolver.LinearOperator hessian = new LinearSolver.LinearOperator() {
+			public void apply(double[] in, double[] out) {
+				Arrays.fill(out, 0d);
+				for (int k = 0; k < _hVal.length; k++) {
+					int i = _hRow[k], j = _hCol[k];
+					out[i] += _hVal[k] * in[j];
+					if (i != j)
+						out[j] += _hVal[k] * in[i];
+				}
+			}
+		};
+		return LinearSolver.conjugateGradient(hessian, rhs, dir, 1e-10, 10 * grad.length) >= 0;
+	}
+
+	/** Compares steepest descent with Newton on a smooth convex polynomial
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Polynomial p = new Polynomial("x^4 + x^2 + 2*y^2 + x*y + -4*x + -4*y + 8");
+		Vector x0 = new Vector("{ x=1.0 y=1.0 }");
+
+		Minimizer sd = new Minimizer();
+		sd.setX0(x0);
+		sd.setMaxIter(1000);
+		sd.minimizeInPlace(p);
+		System.out.println("Steepest descent: " + sd.getNIter() + " iterations, " + sd.getLastPoint());
+
+		NewtonMinimizer newton = new NewtonMinimizer();
+		newton.setX0(x0);
+		try {
+			newton.getHessianEntry("x", "x");
+		} catch (IllegalStateException e) {
+			System.out.println(e.getMessage()); // Should print "No Hessian yet: call minimize(p) or buildHessian(p) first"
+		}
+		newton.minimize(p);
+		System.out.println("Damped Newton:    " + newton.getNIter() + " iterations, " + newton.getLastPoint());
+		System.out.println("d2p/dx2 = " + newton.getHessianEntry("x", "x")); // Should print "12.000*x^2 + 2.000"
+
+		newton.setDenseLimit(0); // force conjugate gradient
+		newton.minimize(p);
+		System.out.println("Newton with CG:   " + newton.getNIter() + " iterations, " + newton.getLastPoint());
+		newton.printResults(System.out);
+
+		newton.setLineSearch(new FixedStepSearch()); // damped steps of the fixed alpha instead of Armijo
+		newton.minimize(p);
+		System.out.println("Fixed-step Newton: " + newton.getNIter() + " iterations, " + newton.getLastPoint());
+	}
+}
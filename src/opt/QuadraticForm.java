@@ -0,0 +1,190 @@
+package opt;
+
+import java.util.Random;
+
+import poly.CompiledPolynomial;
+import util.LinearSolver;
+import util.SparseMatrix;
+
+/** A polynomial of total degree <= 2 written as
+ *
+ *    f(x) = 1/2 x^T Q x + b^T x + c
+ *
+ *  with Q symmetric and sparse.  If Q is positive definite the minimum is the
+ *  solution of Q x = -b, found directly by dense Cholesky (small n) or sparse
+ *  conjugate gradient (large n) instead of by iterating.  The Cholesky factor is
+ *  computed once and reused for later solves.  CG only notices an indefinite Q
+ *  when it meets a direction of non-positive curvature, and from a starting
+ *  guess whose residual lies in the positive eigenspaces of Q (e.g. x = 0 and
+ *  b in that span) it would converge to a saddle point without meeting one.  So
+ *  CG starts from a slightly perturbed guess, and its result is only accepted
+ *  if the residual is small and the objective is no higher than at the guess.
+ *
+ *  A QuadraticForm may be shared by Minimizers that run concurrently (see
+ *  MultiStartMinimizer), so that Q is factored only once.
+ *
+ */
+public class QuadraticForm {
+
+	public static final int DENSE_LIMIT = 500; // max no. of variables for the dense solve
+
+	private final int _n;
+	private final SparseMatrix _q;
+	private final double[] _b;
+	private final double _c;
+
+	private double[][] _factor;     // cached Cholesky factor of Q (dense path), guarded by this
+	private volatile boolean _notPD; // Q was found not to be positive definite
+
+	private QuadraticForm(int n, SparseMatrix q, double[] b, double c) {
+		_n = n;
+		_q = q;
+		_b = b;
+		_c = c;
+	}
+
+	/** Extracts Q, b and c straight from the terms of cp
+	 *
+	 * @param cp
+	 * @return the quadratic form, or null if some term has total degree > 2 or a
+	 *         negative exponent
+	 */
+	public static QuadraticForm extract(CompiledPolynomial cp) {
+		if (!cp.isQuadratic())
+			return null; // before allocating anything per term
+		int n = cp.getNumVars();
+		int nTerms = cp.getNumTerms();
+		int[] rows = new int[2 * nTerms], cols = new int[2 * nTerms];
+		double[] vals = new double[2 * nTerms];
+		double[] b = new double[n];
+		double c = 0d;
+		int nnz = 0;
+		for (int t = 0; t < nTerms; t++) {
+			int begin = cp.getTermBegin(t), end = cp.getTermEnd(t);
+			double coef = cp.getCoef(t);
+			int degree = 0;
+			for (int k = begin; k < end; k++)
+				degree += cp.getPow(k);
+			// Skip x^0 factors so only the variables that matter remain
+			int v1 = -1, v2 = -1;
+			for (int k = begin; k < end; k++) {
+				if (cp.getPow(k) == 0)
+					continue;
+				if (cp.getPow(k) == 2)
+					v1 = v2 = cp.getVarIndex(k);
+				else if (v1 < 0)
+					v1 = cp.getVarIndex(k);
+				else
+					v2 = cp.getVarIndex(k);
+			}
+			if (degree == 0)
+				c += coef;
+			else if (degree == 1)
+				b[v1] += coef;
+			else if (v1 == v2) { // a x_i^2 -> Q_ii += 2a
+				rows[nnz] = v1; cols[nnz] = v1; vals[nnz++] = 2d * coef;
+			} else { // a x_i x_j -> Q_ij += a, Q_ji += a
+				rows[nnz] = v1; cols[nnz] = v2; vals[nnz++] = coef;
+				rows[nnz] = v2; cols[nnz] = v1; vals[nnz++] = coef;
+			}
+		}
+		return new QuadraticForm(n, new SparseMatrix(n, rows, cols, vals, nnz), b, c);
+	}
+
+	public int getNumVars()    { return _n; }
+	public SparseMatrix getQ() { return _q; }
+	public double[] getB()     { return _b; }
+	public double getC()       { return _c; }
+
+	/** Returns f(x) = 1/2 x^T Q x + b^T x + c
+	 *
+	 * @param x
+	 * @param qx -- receives Q x
+	 */
+	private double evaluate(double[] x, double[] qx) {
+		_q.apply(x, qx);
+		double f = _c;
+		for (int i = 0; i < _n; i++)
+			f += x[i] * (0.5 * qx[i] + _b[i]);
+		return f;
+	}
+
+	/** Returns the Cholesky factor of Q, computing it on the first call, or null
+	 *  if Q is not positive definite
+	 */
+	private synchronized double[][] factor() {
+		if (_factor == null && !_notPD) {
+			double[][] factor = new double[_n][_n];
+			if (LinearSolver.cholesky(_q.toDense(), factor))
+				_factor = factor;
+			else
+				_notPD = true;
+		}
+		return _factor;
+	}
+
+	/** Solves Q x = -b for the minimizer.  x is used as the CG starting point.
+	 *
+	 * @param x -- starting guess on input, minimizer on output
+	 * @return false if Q is not positive definite or CG did not reach a minimizer
+	 *         (x is then unspecified)
+	 */
+	public boolean solve(double[] x) {
+		if (_notPD)
+			return false;
+		if (_n <= DENSE_LIMIT) {
+			double[][] factor = factor();
+			if (factor == null)
+				return false;
+			for (int i = 0; i < _n; i++)
+				x[i] = -_b[i];
+			LinearSolver.choleskySolve(factor, x, x);
+			return true;
+		}
+		double[] rhs = new double[_n], qx = new double[_n];
+		double f0 = evaluate(x, qx), bb = 0d, scale = 1d;
+		for (int i = 0; i < _n; i++) {
+			rhs[i] = -_b[i];
+			bb += _b[i] * _b[i];
+			scale = Math.max(scale, Math.abs(x[i]));
+		}
+		Random random = new Random(_n); // a residual in every eigenspace of Q
+		for (int i = 0; i < _n; i++)
+			x[i] += 1e-3 * scale * (2d * random.nextDouble() - 1d);
+		if (LinearSolver.conjugateGradient(_q, rhs, x, 1e-12, 10 * _n) < 0) {
+			_notPD = true;
+			return false;
+		}
+		double f = evaluate(x, qx), rr = 0d;
+		for (int i = 0; i < _n; i++)
+			rr += (qx[i] + _b[i]) * (qx[i] + _b[i]);
+		if (f > f0 + 1e-12 * Math.max(1d, Math.abs(f0))) { // a positive definite Q has its global minimum there
+			_notPD = true;
+			return false;
+		}
+		return rr <= 1e-12 * Math.max(bb, 1d); // not converged: leave it to descent
+	}
+
+	/** Solves a convex quadratic and a saddle of the same size by CG (n > DENSE_LIMIT)
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		java.util.List<String> vars = new java.util.ArrayList<String>();
+		for (int i = 0; i < 600; i++) {
+			sb.append(i == 0 ? "" : " + ").append("x" + i + "^2 + -2*x" + i);
+			vars.add("x" + i);
+		}
+		vars.add("z");
+		for (String z : new String[] { " + z^2", " + -1*z^2" }) {
+			QuadraticForm quad = extract(new poly.Polynomial(sb + z).compile(vars));
+			double[] x = new double[vars.size()];
+			boolean solved = quad.solve(x);
+			System.out.format("%-9s solved: %b, x0 = %.4f\n", z.substring(3), solved, x[0]);
+		}
+		// Should print "z^2      solved: true, x0 = 1.0000", then "-1*z^2   solved: false, ..."
+		// (from x = 0 the residual has no z component, so CG alone would return the saddle)
+	}
+}
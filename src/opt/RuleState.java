@@ -0,0 +1,23 @@
+package opt;
+
+import java.util.Arrays;
+
+/** Helpers for the per-coordinate state arrays of UpdateRules
+ *
+ */
+class RuleState {
+
+	private RuleState() { } // static methods only
+
+	/** Returns a zeroed array of length n, reusing a if it already has that length
+	 *
+	 * @param a -- previous state array (may be null)
+	 * @param n
+	 */
+	static double[] zeros(double[] a, int n) {
+		if (a == null || a.length != n)
+			return new double[n];
+		Arrays.fill(a, 0d);
+		return a;
+	}
+}
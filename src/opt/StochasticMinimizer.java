@@ -0,0 +1,192 @@
+package opt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import poly.CompiledPolynomial;
+import poly.Polynomial;
+import util.Vector;
+
+/** Mini-batch stochastic gradient descent over the terms of a Polynomial.  For an
+ *  objective f = sum of T terms, each iteration takes the next B terms of a
+ *  shuffled term order and uses
+ *
+ *    g = (T / B) * sum over the batch of grad(term)
+ *
+ *  as an unbiased estimate of grad f, then steps x = x - rate * g with the rate
+ *  given by the LearningRateSchedule.  Only the coordinates the batch touches are
+ *  updated, so an iteration costs O(batch) regardless of T.
+ *
+ *  The term order is reshuffled (from a Random seeded with getSeed(), so runs are
+ *  reproducible) at the start of every epoch.  The exact objective value and
+ *  gradient norm -- used for the eps stopping test and reported by the getters --
+ *  are computed once per epoch, which adds O(T) per T/B iterations.
+ *
+ */
+public class StochasticMinimizer extends Minimizer {
+
+	private int _batchSize;						// B, terms per iteration
+	private long _seed;							// seed of the term shuffling
+	private LearningRateSchedule _schedule;		// learning rate per iteration
+
+	// Compiled state, rebuilt only when the Polynomial changes
+	private Polynomial _builtFor;	// Polynomial the state below was built for
+	private List<String> _vars;		// variable order
+	private CompiledPolynomial _objc;	// compiled objective
+
+	/** Default constructor: batch size 32, seed 0, constant learning rate
+	 *
+	 */
+	public StochasticMinimizer() {
+		super();
+		_batchSize = 32;
+		_seed = 0L;
+		_schedule = LearningRateSchedule.constant();
+	}
+
+	public int getBatchSize()                   { return _batchSize; }
+	public long getSeed()                       { return _seed; }
+	public LearningRateSchedule getSchedule()   { return _schedule; }
+	public void setBatchSize(int b)             { _batchSize = b; }
+	public void setSeed(long seed)              { _seed = seed; }
+	public void setSchedule(LearningRateSchedule s) { _schedule = s; }
+
+	@Override
+	String getStrategySettings() {
+		return super.getStrategySettings() + ", batchSize=" + _batchSize + ", seed=" + _seed
+				+ ", schedule=" + describe(_schedule);
+	}
+
+	private void prepare(Polynomial p) throws Exception {
+		if (p == _builtFor)
+			return;
+		_vars = new ArrayList<String>(p.getAllVars());
+		_objc = p.compile(_vars); // not canonicalized: like terms are separate samples
+		_builtFor = p;
+	}
+
+	/** Run mini-batch stochastic gradient descent
+	 *
+	 * @param p Polynomial to minimize
+	 * @throws Exception if x0 does not assign every variable of p or the batch size is < 1
+	 */
+	@Override
+	public void minimize(Polynomial p) throws Exception {
+		if (_batchSize < 1)
+			throw new Exception("Batch size must be at least 1, not " + _batchSize);
+
+		long start = System.currentTimeMillis();
+		prepare(p);
+
+		int n = _vars.size(), nTerms = _objc.getNumTerms();
+		int batch = Math.min(_batchSize, nTerms);
+		double scale = nTerms / (double)batch;
+		double[] x = new double[n], grad = new double[n];
+		double[] g = new double[n];					// gradient estimate, nonzero only at touched
+		int[] touched = new int[n];					// coordinates the current batch touches
+		boolean[] isTouched = new boolean[n];
+		int[] order = new int[nTerms];				// shuffled term order
+		for (int t = 0; t < nTerms; t++)
+			order[t] = t;
+		Random random = new Random(_seed);
+
+		loadStartingPoint(_vars, x);
+		_nIter = 0;
+		_lastObjVal = _objc.evaluate(x);
+		_lastGradNorm = Double.MAX_VALUE;
+
+		int next = nTerms; // position in order; nTerms forces a shuffle first
+		while (getNIter() < getMaxIter() && areWeFarFromMinimum()) {
+			if (next + batch > nTerms) { // new epoch
+				shuffle(order, random);
+				next = 0;
+			}
+			_nIter++;
+
+			// Accumulate the batch gradient on the touched coordinates only
+			int nTouched = 0;
+			for (int b = next; b < next + batch; b++) {
+				int t = order[b];
+				for (int k = _objc.getTermBegin(t); k < _objc.getTermEnd(t); k++) {
+					if (_objc.getPow(k) == 0)
+						continue;
+					int i = _objc.getVarIndex(k);
+					if (!isTouched[i]) {
+						isTouched[i] = true;
+						touched[nTouched++] = i;
+					}
+					g[i] += _objc.evaluateTermPartial(t, k, x);
+				}
+			}
+			next += batch;
+
+			double rate = _schedule.rate(_stepSize, _nIter);
+			for (int j = 0; j < nTouched; j++) {
+				int i = touched[j];
+				x[i] -= rate * scale * g[i];
+				g[i] = 0d;
+				isTouched[i] = false;
+			}
+
+			// Exact objective and gradient norm once per epoch
+			if (next + batch > nTerms) {
+				_lastObjVal = _objc.evaluateWithGradient(x, grad);
+				_lastGradNorm = norm(grad);
+			}
+		}
+
+		_lastObjVal = _objc.evaluateWithGradient(x, grad);
+		_lastGradNorm = norm(grad);
+		storeLastPoint(_vars, x);
+		_compTime = System.currentTimeMillis() - start;
+	}
+
+	/** Fisher-Yates shuffle */
+	private static void shuffle(int[] a, Random random) {
+		for (int i = a.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = a[i];
+			a[i] = a[j];
+			a[j] = tmp;
+		}
+	}
+
+	private static double norm(double[] v) {
+		double sum = 0d;
+		for (int i = 0; i < v.length; i++)
+			sum += v[i] * v[i];
+		return Math.sqrt(sum);
+	}
+
+	/** Least squares fit of y = a*x + b to 2000 noisy data points: the mean of the
+	 *  (x_k*a + b - y_k)^2, expanded into 12000 data-derived terms in a and b
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int n = 2000;
+		Random r = new Random(42);
+		StringBuilder sb = new StringBuilder();
+		for (int k = 0; k < n; k++) {
+			double xk = r.nextDouble() * 2 - 1, yk = 3 * xk + 1 + 0.1 * r.nextGaussian();
+			// (xk*a + b - yk)^2 / n = (xk^2 a^2 + 2 xk a b - 2 xk yk a + b^2 - 2 yk b + yk^2) / n
+			sb.append(k == 0 ? "" : " + ").append(xk * xk / n + "*a^2 + " + 2 * xk / n + "*a*b + "
+					+ (-2 * xk * yk / n) + "*a + " + 1d / n + "*b^2 + " + (-2 * yk / n) + "*b + " + yk * yk / n);
+		}
+		Polynomial p = new Polynomial(sb.toString());
+
+		StochasticMinimizer sgd = new StochasticMinimizer();
+		sgd.setX0(new Vector("{ a=0.0 b=0.0 }"));
+		sgd.setStepSize(0.05);
+		sgd.setBatchSize(64);
+		sgd.setMaxIter(100000);
+		sgd.setEps(0.005);
+		sgd.setSchedule(LearningRateSchedule.inverseTime(0.0001));
+		sgd.minimize(p);
+		System.out.println("SGD, " + sgd.getSchedule() + ", seed " + sgd.getSeed() + ":");
+		sgd.printResults(System.out);
+		// Point at termination should be close to { a=3.0 b=1.0 }
+	}
+}
@@ -0,0 +1,29 @@
+package opt;
+
+/** An update rule for first-order descent: given the gradient at the current
+ *  point, moves the point in place.  Rules may keep per-coordinate state (velocity,
+ *  squared gradient sums, ...) in primitive arrays sized by reset(...).  Select one
+ *  with Minimizer.setUpdateRule(...); Minimizer.minimize(...) and
+ *  Minimizer.minimizeInPlace(...) use it in place of the line search step.
+ *
+ *  A rule instance keeps state for one run at a time, so do not share one
+ *  instance between Minimizers that run concurrently.
+ *
+ */
+public interface UpdateRule {
+
+	/** Prepares state for a new run over n coordinates (reusing arrays when
+	 *  possible).  Called once at the start of every run.
+	 *
+	 * @param n
+	 */
+	public void reset(int n);
+
+	/** Moves x in place given grad, the gradient at x
+	 *
+	 * @param x -- current point, updated in place
+	 * @param grad -- gradient at x (must not be modified)
+	 * @param stepSize -- the Minimizer's step size alpha (learning rate)
+	 */
+	public void update(double[] x, double[] grad, double stepSize);
+}
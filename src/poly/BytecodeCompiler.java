@@ -0,0 +1,574 @@
+package poly;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/** Generates JVM bytecode for a polynomial objective and its gradient partials:
+ *  a hidden class (MethodHandles.Lookup.defineHiddenClass) implementing
+ *  GradientEvaluator whose methods are straight-line code over the point array,
+ *  e.g. for 2*x^3*y + -y with variable order [x, y]
+ *
+ *    double x1 = p[0], x2 = x1 * x1, x3 = x2 * x1, y1 = p[1];
+ *    return x3 * y1 * 2.0 + -y1;
+ *
+ *  There are no loops, table lookups or pow(...) calls left for the JIT to see
+ *  through, so it compiles the result like hand-written code.  Powers are built by
+ *  repeated squaring and shared between the terms of a method.
+ *
+ *  HotSpot does not JIT-compile methods of more than 8000 bytes of bytecode, so
+ *  the code is split into methods of about CHUNK_BYTES each.  Polynomials whose
+ *  code would exceed getMaxCodeBytes() in total (or overflow the class constant
+ *  pool) are not generated: compile(...) then returns the CompiledPolynomial
+ *  itself, which computes the same values.
+ *
+ */
+public class BytecodeCompiler {
+
+	private static final int CHUNK_BYTES = 6000; // bytecode per generated method (JIT limit is 8000)
+	private static volatile int _maxCodeBytes = 1 << 20; // larger polynomials fall back to CompiledPolynomial
+
+	private static final String CLASS_NAME = "poly/GeneratedEvaluator"; // must be in this package
+
+	private BytecodeCompiler() { } // static methods only
+
+	public static int getMaxCodeBytes()           { return _maxCodeBytes; }
+	public static void setMaxCodeBytes(int bytes) { _maxCodeBytes = bytes; }
+
+	/** Generates an evaluator for f whose gradient is computed from the given
+	 *  symbolic partials (compiled over the same variable order as f).  Returns
+	 *  f itself if the generated code would be larger than getMaxCodeBytes().
+	 *
+	 * @param f -- objective
+	 * @param partials -- partials[i] is d f / d (i-th variable); null for a zero partial
+	 * @return
+	 * @throws PolyException if the partials do not match the variables of f
+	 */
+	public static GradientEvaluator compile(CompiledPolynomial f, CompiledPolynomial[] partials)
+			throws PolyException {
+		if (partials.length != f.getNumVars())
+			throw new PolyException("Expected " + f.getNumVars() + " partials, not " + partials.length);
+		for (CompiledPolynomial dp : partials)
+			if (dp != null && !dp.hasSameVars(f))
+				throw new PolyException("Partial has variable order " + dp.getVars() + ", not " + f.getVars());
+
+		ClassWriter cw = new ClassWriter();
+
+		// Objective: methods o0, o1, ... (double[] x) each returning the sum of some terms
+		int nObj = 0, mults = 0;
+		MethodCode m = null;
+		for (int t = 0; t < f.getNumTerms(); t++) {
+			if (m == null)
+				m = new MethodCode(cw._pool, 1);
+			m.term(f, t);
+			if (m.isFull() || t + 1 == f.getNumTerms()) {
+				m.endSum();
+				m.op(DRETURN);
+				mults += m._mults;
+				cw.addMethod(ACC_PRIVATE_STATIC, "o" + nObj++, "([D)D", m);
+				m = null;
+				if (cw._codeBytes > _maxCodeBytes)
+					return f;
+			}
+		}
+
+		// Gradient: methods g0, g1, ... (double[] x, double[] grad) each storing some
+		// partials; a partial too long for one method is accumulated over several
+		int nGrad = 0;
+		m = null;
+		for (int i = 0; i < partials.length; i++) {
+			if (m == null)
+				m = new MethodCode(cw._pool, 2);
+			CompiledPolynomial dp = partials[i];
+			boolean accumulate = false;
+			for (int t = 0; dp != null && t < dp.getNumTerms(); t++) {
+				m.term(dp, t);
+				if (m.isFull() && t + 1 < dp.getNumTerms()) {
+					m.storeGradient(i, accumulate);
+					accumulate = true;
+					m.op(RETURN);
+					cw.addMethod(ACC_PRIVATE_STATIC, "g" + nGrad++, "([D[D)V", m);
+					m = new MethodCode(cw._pool, 2);
+				}
+			}
+			m.storeGradient(i, accumulate);
+			if (m.isFull() || i + 1 == partials.length) {
+				m.op(RETURN);
+				cw.addMethod(ACC_PRIVATE_STATIC, "g" + nGrad++, "([D[D)V", m);
+				m = null;
+			}
+			if (cw._codeBytes > _maxCodeBytes)
+				return f;
+		}
+
+		// Interface methods calling the chunks
+		MethodCode init = new MethodCode(cw._pool, 1);
+		init.op(ALOAD_0);
+		init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+		init.op(RETURN);
+		cw.addMethod(ACC_PUBLIC, "<init>", "()V", init);
+
+		MethodCode eval = new MethodCode(cw._pool, 2);
+		eval.sumObjective(nObj);
+		cw.addMethod(ACC_PUBLIC, "evaluate", "([D)D", eval);
+
+		MethodCode evalGrad = new MethodCode(cw._pool, 3);
+		for (int k = 0; k < nGrad; k++) {
+			evalGrad.op(ALOAD_1);
+			evalGrad.op(ALOAD_2);
+			evalGrad.invoke(INVOKESTATIC, CLASS_NAME, "g" + k, "([D[D)V");
+		}
+		evalGrad.sumObjective(nObj);
+		cw.addMethod(ACC_PUBLIC, "evaluateWithGradient", "([D[D)D", evalGrad);
+
+		cw.addIntGetter("getMultCount", mults);
+		cw.addIntGetter("getDegree", f.getDegree());
+		cw.addBooleanGetter("isQuadratic", f.isQuadratic());
+
+		if (cw._pool._count > 0xFFFF)
+			return f;
+		return define(cw.toByteArray());
+	}
+
+	/** Loads the class file as a hidden class and returns a new instance of it */
+	private static GradientEvaluator define(byte[] classFile) throws PolyException {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+			return (GradientEvaluator)lookup.findConstructor(lookup.lookupClass(),
+					MethodType.methodType(void.class)).invoke();
+		} catch (VirtualMachineError e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new PolyException("Could not load generated evaluator: " + e);
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	// Class file writing (only the small subset of the format needed here)
+	///////////////////////////////////////////////////////////////////////////////
+
+	private static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE_STATIC = 0x000A, ACC_PUBLIC_FINAL_SUPER = 0x0031;
+
+	private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, LDC2_W = 0x14,
+			DCONST_0 = 0x0e, DCONST_1 = 0x0f, DLOAD = 0x18, DSTORE = 0x39, WIDE = 0xc4,
+			ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, DALOAD = 0x31, DASTORE = 0x52,
+			DADD = 0x63, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77,
+			IRETURN = 0xac, DRETURN = 0xaf, RETURN = 0xb1, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+
+	private static final int MAX_STACK = 8; // in slots; terms never need more than 6
+
+	/** A growable big-endian byte buffer */
+	private static class Bytes extends ByteArrayOutputStream {
+		void u1(int v) { write(v); }
+		void u2(int v) { write(v >>> 8); write(v); }
+		void u4(int v) { u2(v >>> 16); u2(v); }
+	}
+
+	/** The constant pool, with each constant added once */
+	private static class Pool {
+		Bytes _bytes = new Bytes();
+		int _count = 1; // next index (entry 0 is unused)
+		HashMap<String,Integer> _index = new HashMap<String,Integer>();
+
+		private Integer lookup(String key) { return _index.get(key); }
+
+		private int add(String key, int slots) {
+			int index = _count;
+			_count += slots;
+			_index.put(key, index);
+			return index;
+		}
+
+		int utf8(String s) {
+			Integer index = lookup("U" + s);
+			if (index != null)
+				return index;
+			byte[] b = s.getBytes(StandardCharsets.UTF_8); // only ASCII names here
+			_bytes.u1(1);
+			_bytes.u2(b.length);
+			_bytes.write(b, 0, b.length);
+			return add("U" + s, 1);
+		}
+
+		int classRef(String name) {
+			Integer index = lookup("C" + name);
+			if (index != null)
+				return index;
+			int utf = utf8(name);
+			_bytes.u1(7);
+			_bytes.u2(utf);
+			return add("C" + name, 1);
+		}
+
+		int methodRef(String owner, String name, String desc) {
+			String key = "M" + owner + "." + name + desc;
+			Integer index = lookup(key);
+			if (index != null)
+				return index;
+			int c = classRef(owner), n = utf8(name), d = utf8(desc);
+			Integer nt = lookup("N" + name + desc);
+			if (nt == null) {
+				_bytes.u1(12);
+				_bytes.u2(n);
+				_bytes.u2(d);
+				nt = add("N" + name + desc, 1);
+			}
+			_bytes.u1(10);
+			_bytes.u2(c);
+			_bytes.u2(nt);
+			return add(key, 1);
+		}
+
+		int doubleConst(double v) {
+			long bits = Double.doubleToRawLongBits(v);
+			Integer index = lookup("D" + bits);
+			if (index != null)
+				return index;
+			_bytes.u1(6);
+			_bytes.u4((int)(bits >>> 32));
+			_bytes.u4((int)bits);
+			return add("D" + bits, 2); // doubles take two entries
+		}
+
+		int intConst(int v) {
+			Integer index = lookup("I" + v);
+			if (index != null)
+				return index;
+			_bytes.u1(3);
+			_bytes.u4(v);
+			return add("I" + v, 1);
+		}
+	}
+
+	/** The class being generated: constant pool and methods */
+	private static class ClassWriter {
+		Pool _pool = new Pool();
+		Bytes _methods = new Bytes();
+		int _nMethods = 0;
+		int _codeBytes = 0; // total bytecode so far
+		int _thisClass = _pool.classRef(CLASS_NAME);
+		int _superClass = _pool.classRef("java/lang/Object");
+		int _interface = _pool.classRef("poly/GradientEvaluator");
+
+		void addMethod(int access, String name, String desc, MethodCode m) {
+			int code = m._code.size();
+			_methods.u2(access);
+			_methods.u2(_pool.utf8(name));
+			_methods.u2(_pool.utf8(desc));
+			_methods.u2(1);                   // one attribute: Code
+			_methods.u2(_pool.utf8("Code"));
+			_methods.u4(12 + code);
+			_methods.u2(MAX_STACK);
+			_methods.u2(m._nextLocal);
+			_methods.u4(code);
+			_methods.write(m._code.toByteArray(), 0, code);
+			_methods.u2(0);                   // no exception table
+			_methods.u2(0);                   // no attributes (straight-line code needs no stack map)
+			_nMethods++;
+			_codeBytes += code;
+		}
+
+		void addIntGetter(String name, int value) {
+			MethodCode m = new MethodCode(_pool, 1);
+			m.pushInt(value);
+			m.op(IRETURN);
+			addMethod(ACC_PUBLIC, name, "()I", m);
+		}
+
+		void addBooleanGetter(String name, boolean value) {
+			MethodCode m = new MethodCode(_pool, 1);
+			m.pushInt(value ? 1 : 0);
+			m.op(IRETURN);
+			addMethod(ACC_PUBLIC, name, "()Z", m);
+		}
+
+		byte[] toByteArray() {
+			Bytes out = new Bytes();
+			out.u4(0xCAFEBABE);
+			out.u2(0);
+			out.u2(52); // class file version of Java 8 is enough
+			out.u2(_pool._count);
+			out.write(_pool._bytes.toByteArray(), 0, _pool._bytes.size());
+			out.u2(ACC_PUBLIC_FINAL_SUPER);
+			out.u2(_thisClass);
+			out.u2(_superClass);
+			out.u2(1);
+			out.u2(_interface);
+			out.u2(0); // no fields
+			out.u2(_nMethods);
+			out.write(_methods.toByteArray(), 0, _methods.size());
+			out.u2(0); // no attributes
+			return out.toByteArray();
+		}
+	}
+
+	/** The code of one method.  Sums of terms are built on the operand stack; each
+	 *  power x_i^k is computed once per method into a local variable.
+	 */
+	private static class MethodCode {
+		Bytes _code = new Bytes();
+		Pool _pool;
+		int _nextLocal;             // next free local variable slot
+		HashMap<Long,Integer> _powers = new HashMap<Long,Integer>(); // (var, k) -> local of x_var^k
+		int _sumTerms = 0;          // terms in the sum on the stack
+		int _tmp = -1;              // scratch local for gradient stores
+		int _mults = 0;             // multiplications and divisions emitted
+
+		/** Locals below firstLocal hold the method arguments (local 0 is the point in
+		 *  the static chunk methods)
+		 */
+		MethodCode(Pool pool, int firstLocal) {
+			_pool = pool;
+			_nextLocal = firstLocal;
+		}
+
+		boolean isFull() {
+			return _code.size() >= CHUNK_BYTES;
+		}
+
+		void op(int opcode) {
+			_code.u1(opcode);
+		}
+
+		void invoke(int opcode, String owner, String name, String desc) {
+			_code.u1(opcode);
+			_code.u2(_pool.methodRef(owner, name, desc));
+		}
+
+		void pushInt(int v) {
+			if (v >= -1 && v <= 5)
+				op(ICONST_0 + v);
+			else if (v == (byte)v) {
+				op(BIPUSH);
+				_code.u1(v);
+			} else if (v == (short)v) {
+				op(SIPUSH);
+				_code.u2(v);
+			} else {
+				op(LDC_W);
+				_code.u2(_pool.intConst(v));
+			}
+		}
+
+		void pushDouble(double v) {
+			if (Double.doubleToRawLongBits(v) == 0L)
+				op(DCONST_0);
+			else if (v == 1d)
+				op(DCONST_1);
+			else {
+				op(LDC2_W);
+				_code.u2(_pool.doubleConst(v));
+			}
+		}
+
+		void local(int opcode, int slot) {
+			if (slot <= 0xFF) {
+				op(opcode);
+				_code.u1(slot);
+			} else {
+				op(WIDE);
+				op(opcode);
+				_code.u2(slot);
+			}
+		}
+
+		int newLocal() {
+			int slot = _nextLocal;
+			_nextLocal += 2; // doubles take two slots
+			return slot;
+		}
+
+		/** Returns the local holding x_var^k, emitting the code to compute it (and
+		 *  any smaller powers it needs) the first time
+		 */
+		int power(int var, int k) {
+			Long key = ((long)var << 32) | (k & 0xFFFFFFFFL);
+			Integer slot = _powers.get(key);
+			if (slot != null)
+				return slot;
+			if (k == 1) {
+				op(ALOAD_0);
+				pushInt(var);
+				op(DALOAD);
+			} else if (k < 0) {
+				int s = power(var, -k);
+				op(DCONST_1);
+				local(DLOAD, s);
+				op(DDIV);
+				_mults++;
+			} else {
+				int half = power(var, k / 2);
+				int one = (k & 1) != 0 ? power(var, 1) : -1;
+				local(DLOAD, half);
+				local(DLOAD, half);
+				op(DMUL);
+				_mults++;
+				if (one >= 0) {
+					local(DLOAD, one);
+					op(DMUL);
+					_mults++;
+				}
+			}
+			int s = newLocal();
+			local(DSTORE, s);
+			_powers.put(key, s);
+			return s;
+		}
+
+		/** Adds term t of q to the sum on the stack */
+		void term(CompiledPolynomial q, int t) {
+			int[] slots = new int[q.getTermEnd(t) - q.getTermBegin(t)];
+			int n = 0;
+			for (int k = q.getTermBegin(t); k < q.getTermEnd(t); k++)
+				if (q.getPow(k) != 0)
+					slots[n++] = power(q.getVarIndex(k), q.getPow(k));
+			double coef = q.getCoef(t);
+			if (n == 0)
+				pushDouble(coef);
+			else {
+				local(DLOAD, slots[0]);
+				for (int j = 1; j < n; j++) {
+					local(DLOAD, slots[j]);
+					op(DMUL);
+					_mults++;
+				}
+				if (coef == -1d)
+					op(DNEG);
+				else if (coef != 1d) {
+					pushDouble(coef);
+					op(DMUL);
+					_mults++;
+				}
+			}
+			if (_sumTerms++ > 0)
+				op(DADD);
+		}
+
+		/** Ends the current sum, leaving its value (0 if it has no terms) on the stack */
+		void endSum() {
+			if (_sumTerms == 0)
+				op(DCONST_0);
+			_sumTerms = 0;
+		}
+
+		/** Ends the current sum and stores it into grad[i] (local 1), or adds it to
+		 *  grad[i] if accumulate
+		 */
+		void storeGradient(int i, boolean accumulate) {
+			endSum();
+			if (_tmp < 0)
+				_tmp = newLocal();
+			local(DSTORE, _tmp);
+			op(ALOAD_1);
+			pushInt(i);
+			if (accumulate) {
+				op(ALOAD_1);
+				pushInt(i);
+				op(DALOAD);
+				local(DLOAD, _tmp);
+				op(DADD);
+			} else
+				local(DLOAD, _tmp);
+			op(DASTORE);
+		}
+
+		/** Returns the sum of the objective methods o0 .. o(n-1) called on the point
+		 *  in local 1
+		 */
+		void sumObjective(int n) {
+			for (int k = 0; k < n; k++) {
+				op(ALOAD_1);
+				invoke(INVOKESTATIC, CLASS_NAME, "o" + k, "([D)D");
+				if (k > 0)
+					op(DADD);
+			}
+			if (n == 0)
+				op(DCONST_0);
+			op(DRETURN);
+		}
+	}
+
+	/** Compares the generated evaluator with the table-driven ones on a dense
+	 *  degree-6 polynomial in 4 variables (210 terms)
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Random r = new Random(1);
+		StringBuilder sb = new StringBuilder();
+		int degree = 6;
+		for (int a = 0; a <= degree; a++)
+			for (int b = 0; a + b <= degree; b++)
+				for (int c = 0; a + b + c <= degree; c++)
+					for (int d = 0; a + b + c + d <= degree; d++)
+						sb.append(sb.length() == 0 ? "" : " + ").append(r.nextDouble() - 0.5)
+							.append("*w^").append(a).append("*x^").append(b).append("*y^").append(c).append("*z^").append(d);
+		Polynomial p = new Polynomial(sb.toString()).canonicalize();
+		List<String> vars = new ArrayList<String>(p.getAllVars());
+		CompiledPolynomial cp = p.compile(vars);
+		HashMap<String,Polynomial> grad = p.gradient();
+		List<Polynomial> gradList = new ArrayList<Polynomial>();
+		for (String var : vars)
+			gradList.add(grad.get(var).canonicalize());
+		CompiledPolynomial[] partials = Polynomial.compile(gradList, vars);
+		GradientEvaluator gen = compile(cp, partials);
+		HornerPlan hp = HornerPlan.build(cp);
+
+		double[] point = { 0.9, -1.1, 1.05, 0.7 };
+		double[] g1 = new double[4], g2 = new double[4];
+		double v1 = cp.evaluateWithGradient(point, g1), v2 = gen.evaluateWithGradient(point, g2);
+		double maxDiff = Math.abs(v1 - v2);
+		for (int i = 0; i < 4; i++)
+			maxDiff = Math.max(maxDiff, Math.abs(g1[i] - g2[i]));
+		System.out.println(cp.getNumTerms() + " terms, generated " + gen.getClass().getSimpleName()
+				+ ", max difference to compiled: " + (maxDiff < 1e-9 ? "< 1e-9" : "" + maxDiff));
+		System.out.println("  multiplications: compiled = " + cp.getMultCount() + ", Horner = " + hp.getMultCount()
+				+ ", generated = " + gen.getMultCount());
+
+		int reps = 500000;
+		System.out.format("  ns/evaluate:              compiled = %.0f, Horner = %.0f, generated = %.0f\n",
+				time(cp, point, reps), time(hp, point, reps), time(gen, point, reps));
+		System.out.format("  ns/evaluateWithGradient:  compiled = %.0f, generated = %.0f\n",
+				timeGradient(cp, point, reps), timeGradient(gen, point, reps));
+
+		int limit = getMaxCodeBytes();
+		setMaxCodeBytes(1000);
+		System.out.println("With a 1000 byte limit: " + compile(cp, partials).getClass().getSimpleName());
+		// Should print "With a 1000 byte limit: CompiledPolynomial"
+		setMaxCodeBytes(limit);
+	}
+
+	private static double time(PolyEvaluator e, double[] point, int reps) {
+		double sink = 0d;
+		for (int i = 0; i < reps; i++) // warm up
+			sink += e.evaluate(point);
+		long start = System.nanoTime();
+		for (int i = 0; i < reps; i++)
+			sink += e.evaluate(point);
+		long elapsed = System.nanoTime() - start;
+		if (sink == 42d)
+			System.out.print("");
+		return (double)elapsed / reps;
+	}
+
+	private static double timeGradient(GradientEvaluator e, double[] point, int reps) {
+		double[] grad = new double[point.length];
+		double sink = 0d;
+		for (int i = 0; i < reps; i++) // warm up
+			sink += e.evaluateWithGradient(point, grad);
+		long start = System.nanoTime();
+		for (int i = 0; i < reps; i++)
+			sink += e.evaluateWithGradient(point, grad) + grad[0];
+		long elapsed = System.nanoTime() - start;
+		if (sink == 42d)
+			System.out.print(Arrays.toString(grad));
+		return (double)elapsed / reps;
+	}
+}
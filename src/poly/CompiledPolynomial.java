@@ -0,0 +1,353 @@
+package poly;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** An immutable, array-based form of a Polynomial for fast repeated evaluation.
+ *  Variables are addressed by their position in a fixed variable order, so a point
+ *  is just a double[] and evaluation does no String lookups, boxing or allocation.
+ *
+ *  For 2.1*x^4*y + 3*y^2 with variable order [x, y], the members would be:
+ *
+ *    _coefs     = [2.1, 3.0]
+ *    _termStart = [0, 2, 3]   (factors of term t are _termStart[t] .. _termStart[t+1]-1)
+ *    _varIdx    = [0, 1, 1]
+ *    _pows      = [4, 1, 2]
+ *
+ *  Instances are built by Polynomial.compile(...).
+ *
+ */
+public class CompiledPolynomial implements GradientEvaluator {
+
+	private final String[] _vars;     // variable order, point[i] is the value of _vars[i]
+	private final double[] _coefs;    // one coefficient per term
+	private final int[]    _termStart; // offsets into _varIdx/_pows, length = #terms + 1
+	private final int[]    _varIdx;   // variable index of each factor
+	private final int[]    _pows;     // exponent of each factor
+	private final int      _degree;   // maximum total degree of a term
+	private final boolean  _quadratic; // no negative exponents and _degree <= 2
+
+	/** Package-private: use Polynomial.compile(...) to build instances
+	 *
+	 */
+	CompiledPolynomial(String[] vars, double[] coefs, int[] termStart, int[] varIdx, int[] pows) {
+		_vars = vars;
+		_coefs = coefs;
+		_termStart = termStart;
+		_varIdx = varIdx;
+		_pows = pows;
+		int degree = 0;
+		boolean negative = false;
+		for (int t = 0; t < coefs.length; t++) {
+			int d = 0;
+			for (int k = termStart[t]; k < termStart[t + 1]; k++) {
+				d += pows[k];
+				negative |= pows[k] < 0;
+			}
+			degree = Math.max(degree, d);
+		}
+		_degree = degree;
+		_quadratic = !negative && degree <= 2;
+	}
+
+	/** Returns the variable order used by this CompiledPolynomial (a copy)
+	 *
+	 */
+	public List<String> getVars() {
+		return new ArrayList<String>(Arrays.asList(_vars));
+	}
+
+	/** Returns whether other uses the same variable order as this one (cheap when
+	 *  both were compiled together, see Polynomial.compile(List, List))
+	 *
+	 * @param other
+	 */
+	boolean hasSameVars(CompiledPolynomial other) {
+		return _vars == other._vars || Arrays.equals(_vars, other._vars);
+	}
+
+	/** Returns the number of variables in the variable order
+	 *
+	 */
+	public int getNumVars() {
+		return _vars.length;
+	}
+
+	/** Returns the total degree: the largest sum of exponents over all terms
+	 *  (e.g., 2 for x^2 + x*y + 3)
+	 *
+	 */
+	public int getDegree() {
+		return _degree;
+	}
+
+	/** Returns whether no term has a negative exponent or total degree above 2
+	 *
+	 */
+	public boolean isQuadratic() {
+		return _quadratic;
+	}
+
+	/** Returns the number of terms
+	 *
+	 */
+	public int getNumTerms() {
+		return _coefs.length;
+	}
+
+	// Read-only access to the term arrays, for algorithms that work term by term
+	public double getCoef(int t)      { return _coefs[t]; }
+	public int getTermBegin(int t)    { return _termStart[t]; }
+	public int getTermEnd(int t)      { return _termStart[t + 1]; }
+	public int getVarIndex(int k)     { return _varIdx[k]; }
+	public int getPow(int k)          { return _pows[k]; }
+
+	/** Returns the number of multiplications evaluate(...) performs: for each
+	 *  factor, the squarings and multiplies of pow(...) plus one to multiply the
+	 *  factor into the term product
+	 *
+	 */
+	public int getMultCount() {
+		int count = 0;
+		for (int k = 0; k < _pows.length; k++)
+			count += powMultCount(_pows[k]) + 1;
+		return count;
+	}
+
+	/** Evaluates this polynomial at point, where point[i] is the value of the i-th
+	 *  variable of the variable order.  Does not allocate.
+	 *
+	 * @param point
+	 * @return
+	 */
+	public double evaluate(double[] point) {
+		double sum = 0d;
+		for (int t = 0; t < _coefs.length; t++)
+			sum += evaluateTerm(t, point);
+		return sum;
+	}
+
+	/** Evaluates this polynomial at n points given in structure-of-arrays layout:
+	 *  columns[i][j] is the value of the i-th variable at the j-th point, and the
+	 *  value at the j-th point is written to out[j].
+	 *
+	 *  Points are processed in blocks, term by term, so every inner loop is a
+	 *  simple stride-1 loop over a block that the JIT can unroll and vectorize.
+	 *  Allocates a single block-sized scratch array per call.
+	 *
+	 * @param columns -- one double[] of length >= n per variable
+	 * @param n -- number of points
+	 * @param out -- receives the n values
+	 */
+	public void evaluateBatch(double[][] columns, int n, double[] out) {
+		double[] block = new double[Math.min(n, BATCH_BLOCK)];
+		for (int start = 0; start < n; start += BATCH_BLOCK) {
+			int len = Math.min(BATCH_BLOCK, n - start);
+			for (int j = 0; j < len; j++)
+				out[start + j] = 0d;
+			for (int t = 0; t < _coefs.length; t++) {
+				double coef = _coefs[t];
+				for (int j = 0; j < len; j++)
+					block[j] = coef;
+				for (int k = _termStart[t]; k < _termStart[t + 1]; k++) {
+					double[] column = columns[_varIdx[k]];
+					int pow = _pows[k];
+					if (pow == 2) {
+						for (int j = 0; j < len; j++)
+							block[j] *= column[start + j] * column[start + j];
+					} else if (pow > 0) {
+						for (int r = 0; r < pow; r++)
+							for (int j = 0; j < len; j++)
+								block[j] *= column[start + j];
+					} else {
+						for (int r = 0; r < -pow; r++)
+							for (int j = 0; j < len; j++)
+								block[j] /= column[start + j];
+					}
+				}
+				for (int j = 0; j < len; j++)
+					out[start + j] += block[j];
+			}
+		}
+	}
+
+	private static final int BATCH_BLOCK = 512; // points per block in evaluateBatch(...)
+
+	/** Evaluates this polynomial and its full gradient at point in a single pass
+	 *  over the terms.  Each term value is computed once and its partial with respect
+	 *  to each of its variables is obtained from it (value * pow / x), so the work is
+	 *  about one evaluation plus a constant factor rather than one evaluation per
+	 *  variable.  A term with a zero factor needs no division: with two or more
+	 *  zero factors all its partials are 0, and with one only the partial for that
+	 *  factor can be nonzero (see zeroFactorPartial(...)), so every term is O(k)
+	 *  in its k factors.  Does not allocate.
+	 *
+	 * @param point -- point[i] is the value of the i-th variable
+	 * @param gradOut -- receives the gradient (overwritten), length getNumVars()
+	 * @return the value of this polynomial at point
+	 */
+	public double evaluateWithGradient(double[] point, double[] gradOut) {
+		for (int i = 0; i < _vars.length; i++)
+			gradOut[i] = 0d;
+		double sum = 0d;
+		for (int t = 0; t < _coefs.length; t++) {
+			int begin = _termStart[t], end = _termStart[t + 1];
+			double value = _coefs[t], rest = _coefs[t]; // rest: without the zero factors
+			int zeros = 0, zero = -1;
+			for (int k = begin; k < end; k++) {
+				if (_pows[k] == 0)
+					continue; // x^0 is 1 and contributes nothing to the gradient
+				double x = point[_varIdx[k]];
+				double v = pow(x, _pows[k]);
+				value *= v;
+				if (x != 0d)
+					rest *= v;
+				else {
+					zeros++;
+					zero = k;
+				}
+			}
+			sum += value;
+			if (zeros == 0) {
+				for (int k = begin; k < end; k++)
+					if (_pows[k] != 0)
+						gradOut[_varIdx[k]] += _pows[k] * value / point[_varIdx[k]];
+			} else if (zeros == 1)
+				gradOut[_varIdx[zero]] += zeroFactorPartial(_pows[zero], rest);
+		}
+		return sum;
+	}
+
+	/** Returns the partial of a term with respect to its only zero factor x^pow
+	 *  (x = 0, pow != 0), given rest, the coefficient times the other factors:
+	 *  pow * 0^(pow-1) * rest, which is rest for pow = 1 and 0 for pow > 1.  The
+	 *  partials for the other factors all contain 0^pow and are 0.
+	 *
+	 * @param pow
+	 * @param rest
+	 */
+	static double zeroFactorPartial(int pow, double rest) {
+		return pow * pow(0d, pow - 1) * rest;
+	}
+
+	/** Evaluates term t alone at point
+	 *
+	 * @param t -- term index, 0 <= t < getNumTerms()
+	 * @param point
+	 * @return
+	 */
+	public double evaluateTerm(int t, double[] point) {
+		double product = _coefs[t];
+		for (int k = _termStart[t]; k < _termStart[t + 1]; k++)
+			product *= pow(point[_varIdx[k]], _pows[k]);
+		return product;
+	}
+
+	/** Partial derivative of term t with respect to the variable of its factor k
+	 *  (getTermBegin(t) <= k < getTermEnd(t)), computed directly.
+	 *
+	 * @param t
+	 * @param k
+	 * @param point
+	 * @return
+	 */
+	public double evaluateTermPartial(int t, int k, double[] point) {
+		if (_pows[k] == 0)
+			return 0d; // not pow(x, -1) * 0, which is NaN at x = 0
+		double d = _coefs[t] * _pows[k] * pow(point[_varIdx[k]], _pows[k] - 1);
+		for (int j = _termStart[t]; j < _termStart[t + 1]; j++)
+			if (j != k)
+				d *= pow(point[_varIdx[j]], _pows[j]);
+		return d;
+	}
+
+	/** Second partial derivative of term t with respect to the variable of its
+	 *  factor k (twice), computed directly.
+	 *
+	 * @param t
+	 * @param k
+	 * @param point
+	 * @return
+	 */
+	public double evaluateTermSecondPartial(int t, int k, double[] point) {
+		if (_pows[k] == 0 || _pows[k] == 1)
+			return 0d; // not pow(x, -2) * 0 or pow(x, -1) * 0, which are NaN at x = 0
+		double d = _coefs[t] * _pows[k] * (_pows[k] - 1) * pow(point[_varIdx[k]], _pows[k] - 2);
+		for (int j = _termStart[t]; j < _termStart[t + 1]; j++)
+			if (j != k)
+				d *= pow(point[_varIdx[j]], _pows[j]);
+		return d;
+	}
+
+	/** Integer power by repeated squaring (exact for the small exponents we see,
+	 *  and much cheaper than Math.pow on a double exponent).
+	 *
+	 * @param base
+	 * @param exp
+	 * @return base^exp
+	 */
+	static double pow(double base, int exp) {
+		if (exp < 0)
+			return 1d / pow(base, -exp);
+		double result = 1d;
+		while (exp != 0) {
+			if ((exp & 1) != 0)
+				result *= base;
+			base *= base;
+			exp >>= 1;
+		}
+		return result;
+	}
+
+	/** Number of multiplications pow(base, exp) performs
+	 *
+	 * @param exp
+	 */
+	static int powMultCount(int exp) {
+		exp = Math.abs(exp);
+		if (exp == 0)
+			return 0;
+		int bits = 32 - Integer.numberOfLeadingZeros(exp);
+		return bits + Integer.bitCount(exp);
+	}
+
+	/** A small example comparing against Polynomial.evaluate(Vector)
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Polynomial p = new Polynomial("x^2 + y^2 + -4*x*y + 8");
+		CompiledPolynomial cp = p.compile(Arrays.asList("x", "y"));
+		System.out.println("Variables: " + cp.getVars()); // Should print "[x, y]"
+		System.out.println("p(1,2)  = " + cp.evaluate(new double[] { 1.0, 2.0 })); // Should print "5.0"
+
+		double[] grad = new double[cp.getNumVars()];
+		double f = cp.evaluateWithGradient(new double[] { 1.0, 2.0 }, grad);
+		System.out.println("p(1,2)  = " + f + ", grad = " + Arrays.toString(grad)); // Should print "5.0, grad = [-6.0, 0.0]"
+
+		double[] out = new double[3];
+		cp.evaluateBatch(new double[][] { { 1.0, 0.0, 2.0 }, { 2.0, 0.0, 2.0 } }, 3, out);
+		System.out.println("batch   = " + Arrays.toString(out)); // Should print "[5.0, 8.0, 0.0]"
+
+		// Not canonicalized: a zero exponent at a point with a zero coordinate
+		CompiledPolynomial q = new Polynomial("3*x^0*y + x^2").compile(Arrays.asList("x", "y"));
+		q.evaluateWithGradient(new double[] { 0.0, 1.0 }, grad);
+		System.out.println("grad    = " + Arrays.toString(grad)); // Should print "[0.0, 3.0]"
+
+		// Degree 2 by the sum of exponents, but not a quadratic
+		CompiledPolynomial r = new Polynomial("x^3*y^-1 + x").compile(Arrays.asList("x", "y"));
+		System.out.println("degree  = " + r.getDegree() + ", quadratic = " + r.isQuadratic()
+				+ " / " + cp.isQuadratic()); // Should print "2, quadratic = false / true"
+
+		// d^2/dx^2 of 3*x*y + x^2 term by term at x = 0
+		CompiledPolynomial s = new Polynomial("3*x*y + x^2").compile(Arrays.asList("x", "y"));
+		double d2 = 0d;
+		for (int t = 0; t < s.getNumTerms(); t++)
+			for (int k = s.getTermBegin(t); k < s.getTermEnd(t); k++)
+				if (s.getVarIndex(k) == 0)
+					d2 += s.evaluateTermSecondPartial(t, k, new double[] { 0.0, 1.0 });
+		System.out.println("d2/dx2  = " + d2); // Should print "2.0"
+	}
+}
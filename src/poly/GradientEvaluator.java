@@ -0,0 +1,29 @@
+package poly;
+
+/** A PolyEvaluator that can also compute the gradient of its polynomial, as used
+ *  by the minimizers and line searches.  Implemented by CompiledPolynomial
+ *  (table-driven) and by the classes BytecodeCompiler generates.
+ *
+ */
+public interface GradientEvaluator extends PolyEvaluator {
+
+	/** Evaluates the polynomial and its full gradient at point
+	 *
+	 * @param point -- point[i] is the value of the i-th variable
+	 * @param gradOut -- receives the gradient (overwritten), length getNumVars()
+	 * @return the value of the polynomial at point
+	 */
+	public double evaluateWithGradient(double[] point, double[] gradOut);
+
+	/** Returns the maximum total degree of a term of the polynomial
+	 *
+	 */
+	public int getDegree();
+
+	/** Returns whether the polynomial is a quadratic: no term has a negative
+	 *  exponent and none has total degree above 2 (getDegree() alone would count
+	 *  x^3*y^-1 as degree 2)
+	 *
+	 */
+	public boolean isQuadratic();
+}
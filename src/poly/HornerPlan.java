@@ -0,0 +1,256 @@
+package poly;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+
+/** A reusable multivariate Horner (nested factorization) evaluation plan.  The
+ *  polynomial is factored recursively on one variable at a time:
+ *
+ *    p = q_d * x^d + ... + q_1 * x + q_0
+ *      = ((q_d * x^(d-e) + q_e) * x^(e-...) + ...) * x^(...)
+ *
+ *  where the q_e are themselves Horner plans over the remaining variables.  At
+ *  each level the variable occurring in the most remaining monomials is factored
+ *  out first.  For dense, high-degree polynomials this needs far fewer
+ *  multiplications than evaluating term by term (and is numerically better
+ *  behaved), see main(...) for a benchmark.
+ *
+ *  Use Polynomial.buildEvaluator(...) to get whichever of HornerPlan or
+ *  CompiledPolynomial needs fewer multiplications.
+ *
+ */
+public class HornerPlan implements PolyEvaluator {
+
+	private final Node _root;
+	private final int _nVars;
+
+	private HornerPlan(Node root, int nVars) {
+		_root = root;
+		_nVars = nVars;
+	}
+
+	/** Builds a Horner plan for cp (over the same variable order)
+	 *
+	 * @param cp
+	 * @return
+	 */
+	public static HornerPlan build(CompiledPolynomial cp) {
+		int nVars = cp.getNumVars();
+		ArrayList<Monomial> monomials = new ArrayList<Monomial>();
+		for (int t = 0; t < cp.getNumTerms(); t++) {
+			int[] exps = new int[nVars];
+			for (int k = cp.getTermBegin(t); k < cp.getTermEnd(t); k++)
+				exps[cp.getVarIndex(k)] += cp.getPow(k);
+			monomials.add(new Monomial(cp.getCoef(t), exps));
+		}
+		return new HornerPlan(build(monomials, nVars), nVars);
+	}
+
+	/** Returns the number of variables the plan evaluates over
+	 *
+	 */
+	public int getNumVars() {
+		return _nVars;
+	}
+
+	@Override
+	public double evaluate(double[] point) {
+		return _root.evaluate(point);
+	}
+
+	@Override
+	public int getMultCount() {
+		return _root.multCount();
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	// Plan construction
+	///////////////////////////////////////////////////////////////////////////////
+
+	/** A term as a coefficient and a dense exponent vector (exps[i] is the power
+	 *  of variable i), consumed while building the plan
+	 */
+	private static class Monomial {
+		double _coef;
+		int[] _exps;
+		Monomial(double coef, int[] exps) { _coef = coef; _exps = exps; }
+	}
+
+	private static Node build(ArrayList<Monomial> monomials, int nVars) {
+
+		// Pick the variable occurring in the most monomials
+		int[] occurrences = new int[nVars];
+		for (Monomial m : monomials)
+			for (int i = 0; i < nVars; i++)
+				if (m._exps[i] != 0)
+					occurrences[i]++;
+		int var = -1;
+		for (int i = 0; i < nVars; i++)
+			if (occurrences[i] > 0 && (var < 0 || occurrences[i] > occurrences[var]))
+				var = i;
+
+		// No variables left: a constant
+		if (var < 0) {
+			double sum = 0d;
+			for (Monomial m : monomials)
+				sum += m._coef;
+			return new Const(sum);
+		}
+
+		// Group by the power of var (descending), removing var from each monomial
+		TreeMap<Integer,ArrayList<Monomial>> pow2monomials = new TreeMap<Integer,ArrayList<Monomial>>();
+		for (Monomial m : monomials) {
+			int pow = m._exps[var];
+			m._exps[var] = 0;
+			ArrayList<Monomial> group = pow2monomials.get(pow);
+			if (group == null) {
+				group = new ArrayList<Monomial>();
+				pow2monomials.put(pow, group);
+			}
+			group.add(m);
+		}
+		int n = pow2monomials.size();
+		int[] pows = new int[n];
+		Node[] coefs = new Node[n];
+		int i = 0;
+		for (Integer pow : pow2monomials.descendingKeySet()) {
+			pows[i] = pow;
+			coefs[i] = build(pow2monomials.get(pow), nVars);
+			i++;
+		}
+		return new Horner(var, pows, coefs);
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	// Plan nodes
+	///////////////////////////////////////////////////////////////////////////////
+
+	private static abstract class Node {
+		abstract double evaluate(double[] point);
+		abstract int multCount();
+	}
+
+	private static class Const extends Node {
+		private final double _value;
+		Const(double value) { _value = value; }
+		double evaluate(double[] point) { return _value; }
+		int multCount() { return 0; }
+	}
+
+	/** sum_j coefs[j] * x_var^pows[j] in Horner form, pows strictly descending
+	 */
+	private static class Horner extends Node {
+		private final int _var;
+		private final int[] _pows;
+		private final Node[] _coefs;
+
+		Horner(int var, int[] pows, Node[] coefs) {
+			_var = var;
+			_pows = pows;
+			_coefs = coefs;
+		}
+
+		double evaluate(double[] point) {
+			double x = point[_var];
+			double result = _coefs[0].evaluate(point);
+			for (int j = 1; j < _pows.length; j++) {
+				int gap = _pows[j - 1] - _pows[j];
+				result = (gap == 1 ? result * x : result * CompiledPolynomial.pow(x, gap))
+						+ _coefs[j].evaluate(point);
+			}
+			int last = _pows[_pows.length - 1];
+			if (last == 1)
+				result *= x;
+			else if (last != 0)
+				result *= CompiledPolynomial.pow(x, last);
+			return result;
+		}
+
+		int multCount() {
+			int count = 0;
+			for (int j = 0; j < _coefs.length; j++)
+				count += _coefs[j].multCount();
+			for (int j = 1; j < _pows.length; j++)
+				count += gapMultCount(_pows[j - 1] - _pows[j]);
+			return count + gapMultCount(_pows[_pows.length - 1]);
+		}
+
+		private static int gapMultCount(int gap) {
+			if (gap == 0)
+				return 0;
+			return gap == 1 ? 1 : CompiledPolynomial.powMultCount(gap) + 1;
+		}
+	}
+
+	/** Benchmark: dense polynomials of degree 10 and 12 in 3 variables, evaluated
+	 *  with Polynomial.evaluate(Vector), CompiledPolynomial and HornerPlan.
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		for (int degree : new int[] { 10, 12 }) {
+			Polynomial p = densePolynomial(degree, new Random(1));
+			CompiledPolynomial cp = p.canonicalize().compile();
+			HornerPlan hp = HornerPlan.build(cp);
+			PolyEvaluator best = p.buildEvaluator(cp.getVars());
+
+			double[] point = { 0.9, -1.1, 1.05 };
+			util.Vector v = new util.Vector("{ x=0.9 y=-1.1 z=1.05 }");
+
+			System.out.println("Dense degree " + degree + ": " + cp.getNumTerms() + " terms");
+			System.out.println("  multiplications: term by term = " + cp.getMultCount()
+					+ ", Horner = " + hp.getMultCount()
+					+ " (buildEvaluator picks " + best.getClass().getSimpleName() + ")");
+			System.out.format("  values: evaluate(Vector) = %.10f, compiled = %.10f, Horner = %.10f\n",
+					p.evaluate(v), cp.evaluate(point), hp.evaluate(point));
+
+			int reps = 200000;
+			double vecNs = timeVector(p, v, reps / 100);
+			double cpNs  = time(cp, point, reps);
+			double hpNs  = time(hp, point, reps);
+			System.out.format("  ns/evaluation: evaluate(Vector) = %.0f, compiled = %.0f, Horner = %.0f\n",
+					vecNs, cpNs, hpNs);
+			System.out.format("  Horner speedup: %.1fx over evaluate(Vector), %.1fx over compiled\n",
+					vecNs / hpNs, cpNs / hpNs);
+		}
+	}
+
+	/** A dense polynomial in x, y, z: every monomial of total degree <= degree */
+	private static Polynomial densePolynomial(int degree, Random r) throws PolyException {
+		StringBuilder sb = new StringBuilder();
+		for (int a = 0; a <= degree; a++)
+			for (int b = 0; a + b <= degree; b++)
+				for (int c = 0; a + b + c <= degree; c++)
+					sb.append(sb.length() == 0 ? "" : " + ").append(r.nextDouble() - 0.5)
+						.append("*x^").append(a).append("*y^").append(b).append("*z^").append(c);
+		return new Polynomial(sb.toString());
+	}
+
+	private static double time(PolyEvaluator e, double[] point, int reps) {
+		double sink = 0d;
+		for (int i = 0; i < reps; i++) // warm up
+			sink += e.evaluate(point);
+		long start = System.nanoTime();
+		for (int i = 0; i < reps; i++)
+			sink += e.evaluate(point);
+		long elapsed = System.nanoTime() - start;
+		if (sink == 42d)
+			System.out.print("");
+		return (double)elapsed / reps;
+	}
+
+	private static double timeVector(Polynomial p, util.Vector v, int reps) throws Exception {
+		double sink = 0d;
+		for (int i = 0; i < reps; i++) // warm up
+			sink += p.evaluate(v);
+		long start = System.nanoTime();
+		for (int i = 0; i < reps; i++)
+			sink += p.evaluate(v);
+		long elapsed = System.nanoTime() - start;
+		if (sink == 42d)
+			System.out.print("");
+		return (double)elapsed / reps;
+	}
+}
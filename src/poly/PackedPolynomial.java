@@ -0,0 +1,417 @@
+package poly;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import util.VariableIndex;
+import util.VectorException;
+
+/** A polynomial in the same CSR layout as CompiledPolynomial (see there), but with
+ *  the coefficient, term offset, variable index and exponent arrays held in
+ *  buffers instead of Java arrays: either views of a memory-mapped file opened by
+ *  PolyBinaryFormat, or direct (off-heap) buffers filled by a Builder -- see
+ *  Polynomial.pack() and PolyFileReader.readPacked(...).  Either way the heap
+ *  holds only the variable names and a few buffer objects, however many terms
+ *  there are, so the garbage collector never scans the term data.
+ *
+ *  Evaluation, differentiation and iteration over the terms (by index, with
+ *  getCoef(t), getTermBegin(t), getTermEnd(t), getVarIndex(k) and getPow(k))
+ *  read the buffers directly.  toCompiled() and toPolynomial() copy the data
+ *  onto the heap when an ordinary representation is needed.
+ *
+ *  Direct buffers count against -XX:MaxDirectMemorySize (by default the maximum
+ *  heap size), and each array is limited to 2 GB, e.g. 268M terms.
+ *
+ */
+public class PackedPolynomial implements GradientEvaluator {
+
+	private final String[] _vars;        // variable order, point[i] is the value of _vars[i]
+	private final DoubleBuffer _coefs;   // one coefficient per term
+	private final IntBuffer _termStart;  // factors of term t are _termStart[t] .. _termStart[t+1]-1
+	private final IntBuffer _varIdx;     // variable index of each factor
+	private final IntBuffer _pows;       // exponent of each factor
+	private final int _nTerms;
+	private final int _degree;           // maximum total degree of a term
+	private int _quadratic;              // isQuadratic(): 1 or 0, -1 until the terms are scanned
+
+	/** Package-private: the buffers are read with absolute gets from index 0
+	 *
+	 */
+	PackedPolynomial(String[] vars, DoubleBuffer coefs, IntBuffer termStart, IntBuffer varIdx,
+			IntBuffer pows, int degree) {
+		_vars = vars;
+		_coefs = coefs;
+		_termStart = termStart;
+		_varIdx = varIdx;
+		_pows = pows;
+		_nTerms = coefs.limit();
+		_degree = degree;
+		_quadratic = -1;
+	}
+
+	/** Returns the variable order used by this PackedPolynomial (a copy)
+	 *
+	 */
+	public List<String> getVars() {
+		return new ArrayList<String>(Arrays.asList(_vars));
+	}
+
+	public int getNumVars()           { return _vars.length; }
+	public int getNumTerms()          { return _nTerms; }
+	public int getDegree()            { return _degree; }
+	public double getCoef(int t)      { return _coefs.get(t); }
+	public int getTermBegin(int t)    { return _termStart.get(t); }
+	public int getTermEnd(int t)      { return _termStart.get(t + 1); }
+	public int getVarIndex(int k)     { return _varIdx.get(k); }
+	public int getPow(int k)          { return _pows.get(k); }
+
+	/** Returns whether no term has a negative exponent or total degree above 2;
+	 *  the first call scans the exponents
+	 *
+	 */
+	public boolean isQuadratic() {
+		if (_quadratic < 0) {
+			boolean quadratic = _degree <= 2;
+			for (int k = 0, n = _termStart.get(_nTerms); quadratic && k < n; k++)
+				quadratic = _pows.get(k) >= 0;
+			_quadratic = quadratic ? 1 : 0;
+		}
+		return _quadratic == 1;
+	}
+
+	/** Returns the bytes of term data (coefficients, offsets, variable indices and
+	 *  exponents) held outside the heap
+	 *
+	 */
+	public long getByteSize() {
+		return 8L * _nTerms + 4L * (_termStart.limit() + _varIdx.limit() + _pows.limit());
+	}
+
+	/** Returns the number of multiplications evaluate(...) performs (as for
+	 *  CompiledPolynomial); scans all factors
+	 *
+	 */
+	public int getMultCount() {
+		int count = 0;
+		for (int k = 0; k < _pows.limit(); k++)
+			count += CompiledPolynomial.powMultCount(_pows.get(k)) + 1;
+		return count;
+	}
+
+	/** Evaluates this polynomial at point, where point[i] is the value of the i-th
+	 *  variable of the variable order.  Does not allocate.
+	 *
+	 * @param point
+	 * @return
+	 */
+	public double evaluate(double[] point) {
+		double sum = 0d;
+		for (int t = 0; t < _nTerms; t++)
+			sum += evaluateTerm(t, point);
+		return sum;
+	}
+
+	/** Evaluates term t alone at point
+	 *
+	 * @param t -- term index, 0 <= t < getNumTerms()
+	 * @param point
+	 * @return
+	 */
+	public double evaluateTerm(int t, double[] point) {
+		double product = _coefs.get(t);
+		for (int k = _termStart.get(t), end = _termStart.get(t + 1); k < end; k++)
+			product *= CompiledPolynomial.pow(point[_varIdx.get(k)], _pows.get(k));
+		return product;
+	}
+
+	/** Evaluates this polynomial and its full gradient at point in a single pass
+	 *  over the terms, with the same algorithm as
+	 *  CompiledPolynomial.evaluateWithGradient(...) (O(k) per term of k factors,
+	 *  also when a factor is zero) over the buffers instead of arrays
+	 *
+	 * @param point -- point[i] is the value of the i-th variable
+	 * @param gradOut -- receives the gradient (overwritten), length getNumVars()
+	 * @return the value of this polynomial at point
+	 */
+	public double evaluateWithGradient(double[] point, double[] gradOut) {
+		for (int i = 0; i < _vars.length; i++)
+			gradOut[i] = 0d;
+		double sum = 0d;
+		for (int t = 0; t < _nTerms; t++) {
+			int begin = _termStart.get(t), end = _termStart.get(t + 1);
+			double value = _coefs.get(t), rest = value; // rest: without the zero factors
+			int zeros = 0, zero = -1;
+			for (int k = begin; k < end; k++) {
+				int pow = _pows.get(k);
+				if (pow == 0)
+					continue; // x^0 is 1 and contributes nothing to the gradient
+				double x = point[_varIdx.get(k)];
+				double v = CompiledPolynomial.pow(x, pow);
+				value *= v;
+				if (x != 0d)
+					rest *= v;
+				else {
+					zeros++;
+					zero = k;
+				}
+			}
+			sum += value;
+			if (zeros == 0) {
+				for (int k = begin; k < end; k++) {
+					int i = _varIdx.get(k), pow = _pows.get(k);
+					if (pow != 0)
+						gradOut[i] += pow * value / point[i];
+				}
+			} else if (zeros == 1)
+				gradOut[_varIdx.get(zero)] += CompiledPolynomial.zeroFactorPartial(_pows.get(zero), rest);
+		}
+		return sum;
+	}
+
+	/** Returns the **new** partial derivative of this polynomial with respect to
+	 *  the i-th variable, built off-heap over the same variable order.  Terms
+	 *  without the variable are dropped, and a factor x^1 becomes a constant.
+	 *
+	 * @param i -- index of the variable, 0 <= i < getNumVars()
+	 * @return
+	 * @throws PolyException if the result is too large for a direct buffer
+	 */
+	public PackedPolynomial differentiate(int i) throws PolyException {
+		Builder b = new Builder(_vars);
+		for (int t = 0; t < _nTerms; t++) {
+			int begin = _termStart.get(t), end = _termStart.get(t + 1), pow = 0;
+			for (int k = begin; k < end; k++)
+				if (_varIdx.get(k) == i)
+					pow = _pows.get(k);
+			if (pow == 0)
+				continue;
+			b.addTerm(_coefs.get(t) * pow);
+			for (int k = begin; k < end; k++) {
+				int j = _varIdx.get(k), pj = j == i ? pow - 1 : _pows.get(k);
+				if (j != i || pj != 0)
+					b.addFactor(j, pj);
+			}
+		}
+		return b.build();
+	}
+
+	/** Returns the **new** partial derivative with respect to var
+	 *
+	 * @param var
+	 * @throws PolyException if var is not in the variable order
+	 */
+	public PackedPolynomial differentiate(String var) throws PolyException {
+		int i = Arrays.asList(_vars).indexOf(var);
+		if (i < 0)
+			throw new PolyException("ERROR: " + var + " is not in the variable order");
+		return differentiate(i);
+	}
+
+	/** Copies this polynomial onto the heap as a CompiledPolynomial
+	 *
+	 */
+	public CompiledPolynomial toCompiled() {
+		int nFactors = _varIdx.limit();
+		double[] coefs = new double[_nTerms];
+		int[] termStart = new int[_nTerms + 1], varIdx = new int[nFactors], pows = new int[nFactors];
+		_coefs.duplicate().get(coefs);
+		_termStart.duplicate().get(termStart);
+		_varIdx.duplicate().get(varIdx);
+		_pows.duplicate().get(pows);
+		return new CompiledPolynomial(_vars.clone(), coefs, termStart, varIdx, pows);
+	}
+
+	/** Copies this polynomial onto the heap as a Polynomial (one Term per term)
+	 *
+	 * @throws PolyException if a variable name is null
+	 */
+	public Polynomial toPolynomial() throws PolyException {
+		int[] varIds = new int[_vars.length]; // Term id of each variable
+		for (int i = 0; i < _vars.length; i++)
+			varIds[i] = Term.id(_vars[i]);
+		ArrayList<Term> terms = new ArrayList<Term>(_nTerms);
+		int[] ids = new int[8], pows = new int[8];
+		for (int t = 0; t < _nTerms; t++) {
+			int begin = getTermBegin(t), n = getTermEnd(t) - begin;
+			if (n > ids.length) {
+				ids = new int[n];
+				pows = new int[n];
+			}
+			for (int k = 0; k < n; k++) {
+				ids[k] = varIds[_varIdx.get(begin + k)];
+				pows[k] = _pows.get(begin + k);
+			}
+			terms.add(new Term(_coefs.get(t), ids, pows, n));
+		}
+		return new Polynomial(terms);
+	}
+
+	/** Builds a PackedPolynomial term by term in direct (off-heap) buffers that
+	 *  grow by doubling.  Start each term with addTerm(coef), then add its factors;
+	 *  variables are numbered in order of first appearance unless an order is given.
+	 *  The Builder must not be used after build().
+	 *
+	 */
+	public static class Builder {
+
+		private static final int MAX_BYTES = Integer.MAX_VALUE & ~7; // largest direct buffer
+
+		private final String[] _order;      // fixed variable order, or null to use _index
+		private final VariableIndex _index;
+		private ByteBuffer _coefs, _termStart, _varIdx, _pows;
+		private int _nTerms, _nFactors;
+		private int _degree, _termDegree;   // maximum total degree so far, of the current term
+
+		/** Numbers variables in order of first appearance
+		 *
+		 */
+		public Builder() {
+			this(null);
+		}
+
+		Builder(String[] order) {
+			_order = order;
+			_index = order == null ? new VariableIndex() : null;
+			_coefs = allocate(1 << 10);
+			_termStart = allocate(1 << 9);
+			_varIdx = allocate(1 << 9);
+			_pows = allocate(1 << 9);
+		}
+
+		/** Returns the index of var, adding it to the variable order if new
+		 *
+		 * @param var
+		 * @throws PolyException if the variable order is fixed and var is not in it
+		 */
+		public int addVar(String var) throws PolyException {
+			if (_index == null) {
+				int i = Arrays.asList(_order).indexOf(var);
+				if (i < 0)
+					throw new PolyException("ERROR: " + var + " is not in the variable order");
+				return i;
+			}
+			try {
+				return _index.getOrAdd(var);
+			} catch (VectorException e) {
+				throw new PolyException(e.getMessage());
+			}
+		}
+
+		/** Starts a new term with coefficient coef
+		 *
+		 * @param coef
+		 * @throws PolyException if the term data no longer fits into a direct buffer
+		 */
+		public void addTerm(double coef) throws PolyException {
+			_coefs = ensure(_coefs, 8L * (_nTerms + 1));
+			_termStart = ensure(_termStart, 4L * (_nTerms + 2)); // room for the final offset
+			_coefs.putDouble(8 * _nTerms, coef);
+			_termStart.putInt(4 * _nTerms, _nFactors);
+			_nTerms++;
+			_termDegree = 0;
+		}
+
+		/** Adds the factor (var-th variable)^pow to the current term
+		 *
+		 * @param var -- as returned by addVar(...)
+		 * @param pow
+		 * @throws PolyException if there is no current term or the data no longer fits
+		 */
+		public void addFactor(int var, int pow) throws PolyException {
+			if (_nTerms == 0)
+				throw new PolyException("Cannot add a factor before the first term");
+			_varIdx = ensure(_varIdx, 4L * (_nFactors + 1));
+			_pows = ensure(_pows, 4L * (_nFactors + 1));
+			_varIdx.putInt(4 * _nFactors, var);
+			_pows.putInt(4 * _nFactors, pow);
+			_nFactors++;
+			_termDegree += pow;
+			_degree = Math.max(_degree, _termDegree);
+		}
+
+		/** Adds a copy of term */
+		void addTerm(Term term) throws PolyException {
+			addTerm(term.getCoef());
+			for (int i = 0; i < term.getNumVars(); i++)
+				addFactor(addVar(term.getVar(i)), term.getPow(i));
+		}
+
+		/** Returns the PackedPolynomial of the terms added so far
+		 *
+		 */
+		public PackedPolynomial build() {
+			_termStart.putInt(4 * _nTerms, _nFactors);
+			String[] vars = _order != null ? _order : _index.getNames().toArray(new String[_index.size()]);
+			return new PackedPolynomial(vars, view(_coefs, 8 * _nTerms).asDoubleBuffer(),
+					view(_termStart, 4 * (_nTerms + 1)).asIntBuffer(), view(_varIdx, 4 * _nFactors).asIntBuffer(),
+					view(_pows, 4 * _nFactors).asIntBuffer(), _degree);
+		}
+
+		private static ByteBuffer allocate(int bytes) {
+			return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		}
+
+		/** Returns b, or a copy with at least the given capacity */
+		private static ByteBuffer ensure(ByteBuffer b, long bytes) throws PolyException {
+			if (bytes <= b.capacity())
+				return b;
+			if (bytes > MAX_BYTES)
+				throw new PolyException("Polynomial is too large for a direct buffer (" + bytes + " bytes)");
+			ByteBuffer grown = allocate((int)Math.min(MAX_BYTES, Math.max(bytes, 2L * b.capacity())));
+			b.clear();
+			grown.put(b);
+			return grown;
+		}
+
+		private static ByteBuffer view(ByteBuffer b, int bytes) {
+			ByteBuffer v = b.duplicate();
+			v.position(0).limit(bytes);
+			return v.slice().order(ByteOrder.nativeOrder());
+		}
+	}
+
+	/** Packs a small polynomial and checks it against Polynomial, then reads a
+	 *  generated file of 2000000 terms off-heap and differentiates it
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Polynomial p = new Polynomial("2.0*x^2*y + -4.0*x + 3.0*y^3*z + 1.5");
+		PackedPolynomial packed = p.pack();
+		System.out.println(packed.getVars() + " " + packed.toPolynomial()); // Should print "[x, y, z] 2.000*x^2*y + -4.000*x + 3.000*y^3*z + 1.500"
+		System.out.println(packed.differentiate("x").toPolynomial()); // Should print "4.000*x*y + -4.000"
+		System.out.println(packed.differentiate("y").toPolynomial()); // Should print "2.000*x^2 + 9.000*y^2*z"
+		double[] x = { 1.5, -2d, 0.5 };
+		System.out.println(packed.evaluate(x) == p.compile(packed.getVars()).evaluate(x)); // Should print "true"
+
+		File file = File.createTempFile("poly", ".txt");
+		file.deleteOnExit();
+		try (java.io.PrintWriter out = new java.io.PrintWriter(file)) {
+			for (int i = 0; i < 2000000; i++)
+				out.print((i == 0 ? "" : " + ") + (i % 13 - 6) + ".5*x" + (i % 1000) + "^2*y" + (i % 7) + "^" + (i % 5 + 1));
+		}
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		long heap = rt.totalMemory() - rt.freeMemory();
+		long start = System.nanoTime();
+		PackedPolynomial big = new PolyFileReader().readPacked(file);
+		double readMs = (System.nanoTime() - start) / 1e6;
+		System.gc();
+		System.out.format("Read %d terms from %d MB in %.0f ms: %d MB off-heap, heap grew by %d MB\n", big.getNumTerms(),
+				file.length() >> 20, readMs, big.getByteSize() >> 20, Math.max(0L, rt.totalMemory() - rt.freeMemory() - heap) >> 20);
+
+		double[] point = new double[big.getNumVars()];
+		Arrays.fill(point, 0.5d);
+		start = System.nanoTime();
+		PackedPolynomial dy = big.differentiate("y3");
+		System.out.format("d/dy3: %d terms in %.0f ms, value %.6f\n", dy.getNumTerms(),
+				(System.nanoTime() - start) / 1e6, dy.evaluate(point));
+	}
+}
@@ -0,0 +1,479 @@
+package poly;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** A versioned binary file format for a canonicalized Polynomial and, optionally,
+ *  its gradient, so that jobs can start without parsing text or differentiating.
+ *  Files are written by write(...) and opened with open(...), which memory-maps
+ *  the file and returns PackedPolynomials that read the mapped data in place
+ *  (zero-copy): opening reads only the header and variable table, and each
+ *  polynomial's arrays are paged in by the operating system as they are used.
+ *
+ *  Layout (little-endian, sections 8-byte aligned):
+ *
+ *    header     "POLYBIN\0", int version, int flags (bit 0: has gradient),
+ *               int nVars, int nPolys, long varTableOffset, long[nPolys] sectionOffsets
+ *    var table  nVars x (int byteLength, UTF-8 bytes): the variable order
+ *    sections   one per polynomial (the objective, then the partial for each
+ *               variable if flags has bit 0):
+ *               int nTerms, int nFactors, int degree, int 0,
+ *               double[nTerms] coefs, int[nTerms+1] termStart,
+ *               int[nFactors] varIdx, int[nFactors] pows   (as in CompiledPolynomial)
+ *
+ *  Sections are mapped together in regions of up to 1 GB, and the arrays of a
+ *  larger section separately, so the only size limit is that of a single
+ *  MappedByteBuffer (2 GB) per array.
+ *
+ */
+public class PolyBinaryFormat {
+
+	public static final int VERSION = 1;
+	private static final byte[] MAGIC = "POLYBIN\0".getBytes(StandardCharsets.US_ASCII);
+	private static final int FLAG_GRADIENT = 1;
+	private static final int HEADER_BYTES = 32;     // before the section offsets
+	private static final int SECTION_HEADER_BYTES = 16;
+
+	private final String[] _vars;                  // variable order of all polynomials
+	private final boolean _hasGradient;
+	private final long[] _sections;                // offset of each section
+	private final long _size;                      // file length, the end of the last section
+	private final Region[] _regions;               // mapping each section is read from
+	private final PackedPolynomial[] _polys;       // the objective, then the partials, read on first use
+
+	private PolyBinaryFormat(String[] vars, boolean hasGradient, long[] sections, long size, Region[] regions,
+			PackedPolynomial[] polys) {
+		_vars = vars;
+		_hasGradient = hasGradient;
+		_sections = sections;
+		_size = size;
+		_regions = regions;
+		_polys = polys;
+	}
+
+	private synchronized PackedPolynomial poly(int j) throws PolyException, IOException {
+		if (_polys[j] == null)
+			_polys[j] = section(_regions[j], _sections[j], j + 1 < _sections.length ? _sections[j + 1] : _size, _vars);
+		return _polys[j];
+	}
+
+	public List<String> getVars()            { return new ArrayList<String>(Arrays.asList(_vars)); }
+	public boolean hasGradient()             { return _hasGradient; }
+
+	/** Returns the stored objective
+	 *
+	 * @throws PolyException if its section is corrupt
+	 * @throws IOException
+	 */
+	public PackedPolynomial getObjective() throws PolyException, IOException {
+		return poly(0);
+	}
+
+	/** Returns the stored partial derivative with respect to the i-th variable
+	 *
+	 * @param i
+	 * @throws PolyException if the file has no gradient or the section is corrupt
+	 * @throws IOException
+	 */
+	public PackedPolynomial getPartial(int i) throws PolyException, IOException {
+		if (!_hasGradient)
+			throw new PolyException("File was written without a gradient");
+		return poly(i + 1);
+	}
+
+	/** Returns the stored partials as heap Polynomials keyed by variable, in the
+	 *  form Minimizer caches them (see Minimizer.buildPartialDerivatives(...))
+	 *
+	 * @throws PolyException if the file has no gradient
+	 */
+	public HashMap<String,Polynomial> getPartialDerivatives() throws PolyException, IOException {
+		HashMap<String,Polynomial> partials = new HashMap<String,Polynomial>();
+		for (int i = 0; i < _vars.length; i++)
+			partials.put(_vars[i], getPartial(i).toPolynomial());
+		return partials;
+	}
+
+	/** Writes p in canonical form with its sorted variables (getAllVars()) as the
+	 *  variable order, and if withGradient also all of its partial derivatives
+	 *
+	 * @param file
+	 * @param p
+	 * @param withGradient
+	 * @throws PolyException
+	 * @throws IOException
+	 */
+	public static void write(File file, Polynomial p, boolean withGradient) throws PolyException, IOException {
+		Polynomial canonical = p.canonicalize();
+		List<String> vars = new ArrayList<String>(canonical.getAllVars());
+		CompiledPolynomial[] partials = null;
+		if (withGradient) {
+			HashMap<String,Polynomial> gradient = canonical.gradient();
+			List<Polynomial> polys = new ArrayList<Polynomial>();
+			polys.add(canonical);
+			for (String var : vars)
+				polys.add(gradient.get(var).canonicalize());
+			CompiledPolynomial[] compiled = Polynomial.compile(polys, vars);
+			partials = new CompiledPolynomial[vars.size()];
+			System.arraycopy(compiled, 1, partials, 0, partials.length);
+			write(file, compiled[0], partials);
+		} else
+			write(file, canonical.compile(vars), null);
+	}
+
+	/** Writes the compiled objective f and, if partials is not null, the partials
+	 *  (partials[i] is d f / d (i-th variable), over the same variable order)
+	 *
+	 * @param file
+	 * @param f
+	 * @param partials -- may be null
+	 * @throws PolyException if partials is not one per variable or a partial has a
+	 *         different variable order
+	 * @throws IOException
+	 */
+	public static void write(File file, CompiledPolynomial f, CompiledPolynomial[] partials)
+			throws PolyException, IOException {
+		List<String> vars = f.getVars();
+		if (partials != null && partials.length != vars.size())
+			throw new PolyException(partials.length + " partials for " + vars.size() + " variables");
+		int nPolys = 1 + (partials == null ? 0 : partials.length);
+		CompiledPolynomial[] polys = new CompiledPolynomial[nPolys];
+		polys[0] = f;
+		for (int i = 1; i < nPolys; i++) {
+			polys[i] = partials[i - 1];
+			if (!polys[i].hasSameVars(f))
+				throw new PolyException("Partial has variable order " + polys[i].getVars() + ", not " + vars);
+		}
+
+		// Layout: offsets of the variable table and sections
+		long varTable = align(HEADER_BYTES + 8L * nPolys);
+		byte[][] names = new byte[vars.size()][];
+		long offset = varTable;
+		for (int i = 0; i < names.length; i++) {
+			names[i] = vars.get(i).getBytes(StandardCharsets.UTF_8);
+			offset += 4 + names[i].length;
+		}
+		long[] sections = new long[nPolys];
+		for (int j = 0; j < nPolys; j++) {
+			sections[j] = offset = align(offset);
+			int nTerms = polys[j].getNumTerms(), nFactors = nTerms == 0 ? 0 : polys[j].getTermEnd(nTerms - 1);
+			offset += SECTION_HEADER_BYTES + 8L * nTerms + 4L * (nTerms + 1) + 8L * nFactors;
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			Output out = new Output(channel);
+			out._buf.put(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(partials == null ? 0 : FLAG_GRADIENT);
+			out.putInt(vars.size());
+			out.putInt(nPolys);
+			out.putLong(varTable);
+			for (long section : sections)
+				out.putLong(section);
+			out.padTo(varTable);
+			for (byte[] name : names) {
+				out.putInt(name.length);
+				out.putBytes(name);
+			}
+			for (int j = 0; j < nPolys; j++) {
+				CompiledPolynomial q = polys[j];
+				int nTerms = q.getNumTerms(), nFactors = nTerms == 0 ? 0 : q.getTermEnd(nTerms - 1);
+				out.padTo(sections[j]);
+				out.putInt(nTerms);
+				out.putInt(nFactors);
+				out.putInt(q.getDegree());
+				out.putInt(0);
+				for (int t = 0; t < nTerms; t++)
+					out.putDouble(q.getCoef(t));
+				for (int t = 0; t < nTerms; t++)
+					out.putInt(q.getTermBegin(t));
+				out.putInt(nFactors);
+				for (int k = 0; k < nFactors; k++)
+					out.putInt(q.getVarIndex(k));
+				for (int k = 0; k < nFactors; k++)
+					out.putInt(q.getPow(k));
+			}
+			out.flush();
+		}
+	}
+
+	/** Memory-maps a file written by write(...).  The returned polynomials read
+	 *  the mapping directly; it stays valid after this method returns.
+	 *
+	 * @param file
+	 * @return
+	 * @throws PolyException if the file is not in this format, of another version,
+	 *         or truncated or corrupt (as far as the header and variable table show)
+	 * @throws IOException
+	 */
+	public static PolyBinaryFormat open(File file) throws PolyException, IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES)
+				throw new PolyException(file + " is not a polynomial binary file");
+			ByteBuffer header = map(channel, 0, HEADER_BYTES);
+			for (int i = 0; i < MAGIC.length; i++)
+				if (header.get(i) != MAGIC[i])
+					throw new PolyException(file + " is not a polynomial binary file");
+			int version = header.getInt(8);
+			if (version != VERSION)
+				throw new PolyException(file + " has format version " + version + ", expected " + VERSION);
+			boolean hasGradient = (header.getInt(12) & FLAG_GRADIENT) != 0;
+			int nVars = header.getInt(16), nPolys = header.getInt(20);
+			long varTable = header.getLong(24);
+			long size = channel.size();
+			if (nVars < 0 || nPolys != (hasGradient ? 1 + (long)nVars : 1))
+				throw new PolyException(file + " has " + nVars + " variables but " + nPolys + " polynomials");
+			if (varTable < HEADER_BYTES + 8L * nPolys || varTable > size)
+				throw new PolyException(file + " is truncated or has a bad variable table offset " + varTable);
+
+			// Each section starts after the previous one (and the variable table)
+			// and leaves room for its section header
+			ByteBuffer directory = map(channel, HEADER_BYTES, 8L * nPolys);
+			long[] sections = new long[nPolys];
+			for (int j = 0; j < nPolys; j++) {
+				sections[j] = directory.getLong(8 * j);
+				long min = j == 0 ? varTable : sections[j - 1] + SECTION_HEADER_BYTES;
+				if (sections[j] < min || sections[j] > size - SECTION_HEADER_BYTES)
+					throw new PolyException(file + " is truncated or has a bad offset " + sections[j] + " of section " + j);
+			}
+
+			if (4L * nVars > sections[0] - varTable)
+				throw new PolyException(file + " has a variable table too small for " + nVars + " variables");
+			ByteBuffer table = map(channel, varTable, sections[0] - varTable);
+			String[] vars = new String[nVars];
+			for (int i = 0, pos = 0; i < nVars; i++) {
+				int length = pos + 4 <= table.limit() ? table.getInt(pos) : -1;
+				if (length < 0 || length > table.limit() - pos - 4)
+					throw new PolyException(file + " has a corrupt variable table");
+				byte[] name = new byte[length];
+				table.position(pos + 4);
+				table.get(name);
+				vars[i] = new String(name, StandardCharsets.UTF_8);
+				pos += 4 + name.length;
+			}
+
+			// Sections are mapped in shared regions of up to REGION_BYTES (so a file
+			// with many small partials needs few mappings) and read on first use; a
+			// larger section maps each of its arrays on its own, before the channel
+			// is closed
+			Region[] regions = new Region[nPolys];
+			PackedPolynomial[] polys = new PackedPolynomial[nPolys];
+			Region region = null;
+			for (int j = 0; j < nPolys; j++) {
+				long end = j + 1 < nPolys ? sections[j + 1] : size;
+				if (end - sections[j] > REGION_BYTES)
+					polys[j] = section(new Region(channel), sections[j], end, vars);
+				else {
+					if (region == null || region._start > sections[j] || region._end < end)
+						region = new Region(channel, sections[j], Math.min(size, sections[j] + REGION_BYTES));
+					regions[j] = region;
+				}
+			}
+			return new PolyBinaryFormat(vars, hasGradient, sections, size, regions, polys);
+		}
+	}
+
+	/** Reads the section at offset from region; its arrays must end by end (the
+	 *  next section or the end of the file), its term offsets must not decrease
+	 *  and its variable indices must be in range
+	 */
+	private static PackedPolynomial section(Region region, long offset, long end, String[] vars)
+			throws PolyException, IOException {
+		ByteBuffer header = region.get(offset, SECTION_HEADER_BYTES);
+		int nTerms = header.getInt(0), nFactors = header.getInt(4), degree = header.getInt(8);
+		long coefs = offset + SECTION_HEADER_BYTES;
+		long termStart = coefs + 8L * nTerms;
+		long varIdx = termStart + 4L * (nTerms + 1);
+		long pows = varIdx + 4L * nFactors;
+		if (nTerms < 0 || nFactors < 0 || pows + 4L * nFactors > end)
+			throw new PolyException("Section at " + offset + " with " + nTerms + " terms and " + nFactors
+					+ " factors does not fit before " + end);
+
+		// One pass over the offsets and variable indices, so that a corrupt file
+		// fails here and not with an IndexOutOfBounds during evaluation
+		IntBuffer starts = region.get(termStart, 4L * (nTerms + 1)).asIntBuffer();
+		if (starts.get(0) != 0 || starts.get(nTerms) != nFactors)
+			throw new PolyException("Section at " + offset + " has corrupt term offsets");
+		for (int t = 0; t < nTerms; t++)
+			if (starts.get(t) > starts.get(t + 1))
+				throw new PolyException("Section at " + offset + " has decreasing term offsets at term " + t);
+		IntBuffer index = region.get(varIdx, 4L * nFactors).asIntBuffer();
+		for (int k = 0; k < nFactors; k++)
+			if (index.get(k) < 0 || index.get(k) >= vars.length)
+				throw new PolyException("Section at " + offset + " has variable index " + index.get(k)
+						+ " out of range at factor " + k);
+		return new PackedPolynomial(vars,
+				region.get(coefs, 8L * nTerms).asDoubleBuffer(),
+				starts,
+				index,
+				region.get(pows, 4L * nFactors).asIntBuffer(),
+				degree);
+	}
+
+	private static final long REGION_BYTES = 1L << 30; // largest region mapped for several sections
+
+	/** Little-endian views of parts of a file: slices of one mapping of bytes
+	 *  [_start, _end), or (without a mapping) a separate mapping per view
+	 */
+	private static class Region {
+		final FileChannel _channel;
+		final MappedByteBuffer _mapping; // null: map each view separately
+		final long _start, _end;
+
+		Region(FileChannel channel) {
+			_channel = channel;
+			_mapping = null;
+			_start = _end = 0L;
+		}
+
+		Region(FileChannel channel, long start, long end) throws IOException {
+			_channel = channel;
+			_mapping = map(channel, start, end - start);
+			_start = start;
+			_end = end;
+		}
+
+		ByteBuffer get(long offset, long length) throws IOException {
+			if (_mapping == null)
+				return map(_channel, offset, length);
+			ByteBuffer b = _mapping.duplicate();
+			b.position((int)(offset - _start)).limit((int)(offset - _start + length));
+			return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Array of " + length + " bytes is too large to map");
+		MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		return b;
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/** Buffered little-endian output to a channel, tracking the file offset */
+	private static class Output {
+		final FileChannel _channel;
+		final ByteBuffer _buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		long _written = 0L; // bytes already flushed to the channel
+
+		Output(FileChannel channel) {
+			_channel = channel;
+		}
+
+		long position()                  { return _written + _buf.position(); }
+		void putInt(int v) throws IOException       { ensure(4); _buf.putInt(v); }
+		void putLong(long v) throws IOException     { ensure(8); _buf.putLong(v); }
+		void putDouble(double v) throws IOException { ensure(8); _buf.putDouble(v); }
+
+		void putBytes(byte[] b) throws IOException {
+			for (byte v : b) {
+				ensure(1);
+				_buf.put(v);
+			}
+		}
+
+		void padTo(long offset) throws IOException {
+			while (position() < offset) {
+				ensure(1);
+				_buf.put((byte)0);
+			}
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (_buf.remaining() < bytes)
+				flush();
+		}
+
+		void flush() throws IOException {
+			_buf.flip();
+			while (_buf.hasRemaining())
+				_written += _channel.write(_buf);
+			_buf.clear();
+		}
+	}
+
+	/** Writes a 150000-term objective with its gradient and compares opening the
+	 *  binary file with parsing the text and building the gradient
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int n = 50000;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			sb.append(i == 0 ? "" : " + ").append("x" + i + "^2 + -2*x" + i + " + 1");
+			if (i + 1 < n)
+				sb.append(" + 0.25*x" + i + "^2 + -0.5*x" + i + "*x" + (i + 1) + " + 0.25*x" + (i + 1) + "^2");
+		}
+		File text = File.createTempFile("poly", ".txt"), binary = File.createTempFile("poly", ".bin");
+		text.deleteOnExit();
+		binary.deleteOnExit();
+		try (java.io.PrintWriter out = new java.io.PrintWriter(text)) {
+			out.print(sb);
+		}
+		write(binary, new Polynomial(sb.toString()), true);
+
+		long start = System.nanoTime();
+		Polynomial p = Polynomial.ReadPolynomial(text).canonicalize();
+		HashMap<String,Polynomial> gradient = p.gradient();
+		for (String var : gradient.keySet())
+			gradient.put(var, gradient.get(var).canonicalize());
+		double textMs = (System.nanoTime() - start) / 1e6;
+
+		start = System.nanoTime();
+		PolyBinaryFormat f = open(binary);
+		List<String> vars = f.getVars();
+		double binaryMs = (System.nanoTime() - start) / 1e6;
+
+		System.out.format("Text: %d terms and %d partials in %.0f ms (%d KB); binary: opened in %.1f ms (%d KB)\n",
+				p.getNumTerms(), gradient.size(), textMs, text.length() >> 10, binaryMs, binary.length() >> 10);
+
+		double[] x = new double[vars.size()];
+		for (int i = 0; i < x.length; i++)
+			x[i] = (i % 10) / 10d;
+		CompiledPolynomial cp = p.compile(vars);
+		int i = vars.indexOf("x7");
+		System.out.println("Same objective and partial: " + (cp.evaluate(x) == f.getObjective().evaluate(x))
+				+ " " + (gradient.get("x7").compile(vars).evaluate(x) == f.getPartial(i).evaluate(x)));
+		// Should print "Same objective and partial: true true"
+
+		opt.Minimizer m = new opt.Minimizer();
+		util.Vector x0 = new util.Vector();
+		for (String var : vars)
+			x0.set(var, 0d);
+		m.setX0(x0);
+		m.setLineSearch(new opt.ArmijoLineSearch());
+		m.minimizeInPlace(f.getObjective(), vars);
+		System.out.format("Minimized from the mapped file: %d iterations, objective %.6f\n",
+				m.getNIter(), m.getLastObjVal());
+		// Should reach objective 0.000000 (all x_i = 1)
+
+		File truncated = File.createTempFile("poly", ".bin");
+		truncated.deleteOnExit();
+		java.nio.file.Files.write(truncated.toPath(),
+				Arrays.copyOf(java.nio.file.Files.readAllBytes(binary.toPath()), (int)(binary.length() / 2)));
+		try {
+			open(truncated);
+			System.out.println("Opened a truncated file");
+		} catch (PolyException e) {
+			System.out.println("Truncated file: " + e.getMessage().replace(truncated.toString(), "<file>"));
+		}
+		// Should print "Truncated file: <file> is truncated or has a bad offset ... of section ..."
+	}
+}
@@ -0,0 +1,23 @@
+package poly;
+
+/** Something that can evaluate a fixed polynomial at a point given as a double[]
+ *  (point[i] is the value of the i-th variable of the evaluator's variable order).
+ *  Implementations trade build time for evaluation speed; getMultCount() lets
+ *  callers pick the cheapest one.
+ *
+ */
+public interface PolyEvaluator {
+
+	/** Evaluates the polynomial at point
+	 *
+	 * @param point
+	 * @return
+	 */
+	public double evaluate(double[] point);
+
+	/** Returns the number of floating point multiplications one call to
+	 *  evaluate(...) performs
+	 *
+	 */
+	public int getMultCount();
+}
@@ -0,0 +1,262 @@
+package poly;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/** Reads a Polynomial from a text file of any size.  The file is memory-mapped
+ *  (FileChannel / MappedByteBuffer) rather than read into a String, and split
+ *  into chunks of about getChunkSize() bytes, each ending just before a '+'
+ *  between terms (never the sign of an exponent such as 1.5e+3) so that it holds
+ *  whole terms.  Each chunk is parsed in place by PolyParser and the terms of
+ *  all chunks are concatenated in file order; with setParallel(true) the chunks
+ *  are parsed concurrently on the common ForkJoinPool.
+ *
+ *  Line breaks are whitespace, so a polynomial may be written across any number
+ *  of lines.  Bytes are read as single characters (ASCII / ISO-8859-1).  Only
+ *  one chunk needs to be mapped at a time, so files larger than the 2 GB limit
+ *  of a single MappedByteBuffer are fine.
+ *
+ */
+public class PolyFileReader {
+
+	private static final int SCAN_BYTES = 1 << 16; // window mapped to look for the next '+'
+
+	private int _chunkSize;     // target bytes per chunk
+	private boolean _parallel;  // parse chunks concurrently?
+
+	/** Default constructor: 16 MB chunks, parsed sequentially
+	 *
+	 */
+	public PolyFileReader() {
+		_chunkSize = 16 << 20;
+		_parallel = false;
+	}
+
+	public int getChunkSize()           { return _chunkSize; }
+	public boolean isParallel()         { return _parallel; }
+	public void setChunkSize(int bytes) { _chunkSize = bytes; }
+	public void setParallel(boolean p)  { _parallel = p; }
+
+	/** Reads the Polynomial in file
+	 *
+	 * @param file
+	 * @return
+	 * @throws PolyException if the file is empty or malformed (the message gives
+	 *         the byte offset of the chunk and the character offset within it)
+	 * @throws IOException
+	 */
+	public Polynomial read(final File file) throws PolyException, IOException {
+		try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size == 0L)
+				throw new PolyException("Empty Polynomial, cannot read");
+
+			List<Long> bounds = chunkBounds(channel, size);
+			int nChunks = bounds.size() - 1;
+			List<Callable<ArrayList<Term>>> tasks = new ArrayList<Callable<ArrayList<Term>>>();
+			for (int c = 0; c < nChunks; c++) {
+				final long from = c == 0 ? 0L : bounds.get(c) + 1; // skip the '+'
+				final long to = bounds.get(c + 1);
+				tasks.add(new Callable<ArrayList<Term>>() {
+					public ArrayList<Term> call() throws Exception {
+						return parseChunk(file, channel, from, to);
+					}
+				});
+			}
+
+			ArrayList<Term> terms = new ArrayList<Term>();
+			try {
+				if (_parallel && nChunks > 1)
+					for (Future<ArrayList<Term>> f : ForkJoinPool.commonPool().invokeAll(tasks))
+						terms.addAll(f.get());
+				else
+					for (Callable<ArrayList<Term>> task : tasks)
+						terms.addAll(task.call());
+			} catch (ExecutionException e) {
+				rethrow(e.getCause());
+			} catch (Exception e) {
+				rethrow(e);
+			}
+			return new Polynomial(terms);
+		}
+	}
+
+	/** Reads the Polynomial in file directly into off-heap storage: the chunks are
+	 *  parsed one after the other and each term is packed as soon as it is read,
+	 *  so only one Term and one mapped chunk are live at a time, whatever the size
+	 *  of the file.  Variables are numbered in order of first appearance.
+	 *
+	 * @param file
+	 * @return
+	 * @throws PolyException if the file is empty or malformed
+	 * @throws IOException
+	 */
+	public PackedPolynomial readPacked(File file) throws PolyException, IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size == 0L)
+				throw new PolyException("Empty Polynomial, cannot read");
+			List<Long> bounds = chunkBounds(channel, size);
+			PackedPolynomial.Builder builder = new PackedPolynomial.Builder();
+			for (int c = 0; c + 1 < bounds.size(); c++) {
+				long from = c == 0 ? 0L : bounds.get(c) + 1; // skip the '+'
+				MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, from, bounds.get(c + 1) - from);
+				PolyParser parser = new PolyParser(new ByteText(chunk));
+				try {
+					for (Term t = parser.nextTerm(); t != null; t = parser.nextTerm())
+						builder.addTerm(t);
+				} catch (PolyException e) {
+					throw new PolyException(file + ", chunk at byte " + from + ": " + e.getMessage());
+				}
+			}
+			return builder.build();
+		}
+	}
+
+	/** Returns the chunk boundaries: chunk c is [bounds[c], bounds[c+1]) minus a
+	 *  leading '+'
+	 */
+	private List<Long> chunkBounds(FileChannel channel, long size) throws IOException {
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		long start = 0L;
+		while (size - start > _chunkSize) {
+			long end = nextPlus(channel, start + _chunkSize, size);
+			if (end == size)
+				break;
+			bounds.add(end);
+			start = end;
+		}
+		bounds.add(size);
+		return bounds;
+	}
+
+	/** Returns the offset of the first '+' at or after from that separates terms,
+	 *  or size if there is none.  A '+' right after 'e' or 'E' may be the sign of
+	 *  an exponent (1.5e+3), so it is never used as a boundary.
+	 */
+	private static long nextPlus(FileChannel channel, long from, long size) throws IOException {
+		byte prev = 0;
+		if (from > 0)
+			prev = channel.map(FileChannel.MapMode.READ_ONLY, from - 1, 1).get(0);
+		while (from < size) {
+			int len = (int)Math.min(SCAN_BYTES, size - from);
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, from, len);
+			for (int i = 0; i < len; i++) {
+				byte b = window.get(i);
+				if (b == '+' && prev != 'e' && prev != 'E')
+					return from + i;
+				prev = b;
+			}
+			from += len;
+		}
+		return size;
+	}
+
+	/** Parses the terms in bytes [from, to) of the file */
+	private static ArrayList<Term> parseChunk(File file, FileChannel channel, long from, long to)
+			throws PolyException, IOException {
+		MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+		try {
+			return new PolyParser(new ByteText(chunk)).parseTerms();
+		} catch (PolyException e) {
+			throw new PolyException(file + ", chunk at byte " + from + ": " + e.getMessage());
+		}
+	}
+
+	private static void rethrow(Throwable e) throws PolyException, IOException {
+		if (e instanceof PolyException)
+			throw (PolyException)e;
+		if (e instanceof IOException)
+			throw (IOException)e;
+		if (e instanceof RuntimeException)
+			throw (RuntimeException)e;
+		if (e instanceof Error)
+			throw (Error)e;
+		throw new IOException(e);
+	}
+
+	/** A read-only CharSequence view of the bytes of a ByteBuffer (one char per
+	 *  byte), so PolyParser can parse mapped memory without copying it
+	 */
+	private static class ByteText implements CharSequence {
+		private final ByteBuffer _bytes;
+
+		ByteText(ByteBuffer bytes) {
+			_bytes = bytes;
+		}
+
+		public int length() {
+			return _bytes.limit();
+		}
+
+		public char charAt(int index) {
+			return (char)(_bytes.get(index) & 0xFF);
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			ByteBuffer b = _bytes.duplicate();
+			b.position(start).limit(end);
+			return new ByteText(b.slice());
+		}
+
+		public String toString() {
+			byte[] b = new byte[_bytes.limit()];
+			_bytes.duplicate().get(b);
+			return new String(b, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	/** Reads files/poly1.txt and a generated multi-line file of 1000000 terms,
+	 *  sequentially and in parallel
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		PolyFileReader reader = new PolyFileReader();
+		System.out.println(reader.read(new File("files/poly1.txt"))); // Should print "1.000*x^2 + -4.000*x + 4.000"
+
+		File signed = File.createTempFile("poly", ".txt"); // a '+' inside a number is not a chunk boundary
+		signed.deleteOnExit();
+		try (java.io.PrintWriter out = new java.io.PrintWriter(signed)) {
+			out.print("1.5e+3*x + 2*y");
+		}
+		reader.setChunkSize(1);
+		System.out.println(reader.read(signed) + " | " + reader.readPacked(signed).toPolynomial());
+		// Should print "1500.000*x + 2.000*y | 1500.000*x + 2.000*y"
+
+		File file = File.createTempFile("poly", ".txt");
+		file.deleteOnExit();
+		try (java.io.PrintWriter out = new java.io.PrintWriter(file)) {
+			for (int i = 0; i < 1000000; i++)
+				out.print((i == 0 ? "" : (i % 10 == 0 ? " +\n" : " + ")) + (i % 13 - 6) + ".5*x" + (i % 100)
+						+ "^2*y" + (i % 7) + "^" + (i % 5 + 1));
+		}
+		reader.setChunkSize(1 << 20);
+		String[] results = new String[2];
+		for (int rep = 0; rep < 2; rep++) { // the second round is warmed up
+			for (int par = 0; par < 2; par++) {
+				reader.setParallel(par == 1);
+				long start = System.nanoTime();
+				Polynomial p = reader.read(file);
+				if (rep == 1)
+					System.out.format("%s: %d terms from %d MB in %.0f ms\n", par == 1 ? "Parallel  " : "Sequential",
+							p.getNumTerms(), file.length() >> 20, (System.nanoTime() - start) / 1e6);
+				results[par] = p.toString();
+			}
+		}
+		System.out.println("Same result: " + results[0].equals(results[1])); // Should print "Same result: true"
+	}
+}
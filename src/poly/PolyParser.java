@@ -0,0 +1,401 @@
+package poly;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** A single-pass parser for the text format of Polynomial and Term, e.g.
+ *
+ *    2.000*x^2*y + -4.000*x + 1.5e-3
+ *
+ *  Terms are separated by '+', factors by '*'; a factor is a number or a variable
+ *  with an optional integer exponent '^'.  Whitespace around terms and factors is
+ *  ignored.  This is the format Polynomial.toString() writes (including NaN and
+ *  Infinity coefficients), and Polynomial(String) and Term(String) parse with this
+ *  class.
+ *
+ *  The input is read in place from any CharSequence (a String, StringBuilder,
+ *  CharBuffer, ...) without regular expressions, substrings or exceptions as
+ *  control flow: numbers are converted directly from their digits, and variable
+ *  names are looked up in a per-parser cache so each distinct name becomes a
+ *  String and is interned to a Term variable id only once.  Errors are reported as a PolyException that gives the
+ *  character offset of the problem.
+ *
+ */
+public class PolyParser {
+
+	// Exact powers of ten for the fast path of number conversion (10^22 is the
+	// largest power of ten that is exactly representable as a double)
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1d;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10d;
+	}
+	private static final long MAX_MANTISSA = ((1L << 53) - 9) / 10; // one more digit keeps it below 2^53, an exact double
+
+	private final CharSequence _s;  // input
+	private final int _end;         // parse _s up to this offset (exclusive)
+	private int _pos;               // current offset into _s
+	private boolean _started;       // has nextTerm() read the first term?
+
+	private String[] _names;        // cache of variable names (open addressing)
+	private int[] _nameIds;         // global Term id of each cached name, -1 until first needed
+	private int _nNames;            // number of cached names
+
+	private double _coef;           // the term being parsed: its coefficient,
+	private int[] _ids;             // variable ids and exponents in the order written
+	private int[] _pows;
+	private int _nFactors;
+
+	/** Parses all of s
+	 *
+	 * @param s
+	 */
+	public PolyParser(CharSequence s) {
+		this(s, 0, s.length());
+	}
+
+	/** Parses s from offset start (inclusive) to end (exclusive); error offsets
+	 *  are offsets into s
+	 *
+	 * @param s
+	 * @param start
+	 * @param end
+	 */
+	public PolyParser(CharSequence s, int start, int end) {
+		_s = s;
+		_pos = start;
+		_end = end;
+		_names = new String[64];
+		_nameIds = new int[64];
+		_nNames = 0;
+		_ids = new int[8];
+		_pows = new int[8];
+	}
+
+	/** Parses a Polynomial (one or more Terms separated by '+')
+	 *
+	 * @return
+	 * @throws PolyException if the input is empty or malformed
+	 */
+	public Polynomial parsePolynomial() throws PolyException {
+		return new Polynomial(parseTerms());
+	}
+
+	/** Parses a single Term (factors separated by '*')
+	 *
+	 * @return
+	 * @throws PolyException if the input is empty or malformed
+	 */
+	public Term parseTerm() throws PolyException {
+		skipWhitespace();
+		if (_pos == _end)
+			throw new PolyException("Empty Term, cannot read");
+		Term t = term();
+		if (_pos < _end)
+			throw error("unexpected '" + _s.charAt(_pos) + "'");
+		return t;
+	}
+
+	/** Parses the Terms of a Polynomial
+	 *
+	 * @throws PolyException
+	 */
+	ArrayList<Term> parseTerms() throws PolyException {
+		ArrayList<Term> terms = new ArrayList<Term>();
+		for (Term t = nextTerm(); t != null; t = nextTerm())
+			terms.add(t);
+		return terms;
+	}
+
+	/** Parses the next Term of a Polynomial, so a caller can consume the terms one
+	 *  at a time without holding them all
+	 *
+	 * @return the next Term, or null after the last one
+	 * @throws PolyException if the input is empty or malformed
+	 */
+	Term nextTerm() throws PolyException {
+		if (!_started) {
+			_started = true;
+			skipWhitespace();
+			if (_pos == _end)
+				throw new PolyException("Empty Polynomial, cannot read");
+		} else {
+			if (_pos == _end)
+				return null;
+			if (_s.charAt(_pos) != '+')
+				throw error("unexpected '" + _s.charAt(_pos) + "'");
+			_pos++;
+		}
+		return term();
+	}
+
+	/** term := factor ('*' factor)*, stops before '+' or the end */
+	private Term term() throws PolyException {
+		skipWhitespace();
+		if (_pos == _end || _s.charAt(_pos) == '+')
+			throw error("Empty Term, cannot read");
+		int start = _pos;
+		_coef = 1.0d; // will multiply any constants by this
+		_nFactors = 0;
+		while (true) {
+			factor(start);
+			skipWhitespace();
+			if (_pos == _end || _s.charAt(_pos) != '*')
+				return new Term(_coef, _ids, _pows, _nFactors);
+			_pos++;
+			skipWhitespace();
+		}
+	}
+
+	/** factor := number | name ('^' integer)?, multiplied into the current term */
+	private void factor(int termStart) throws PolyException {
+		if (_pos == _end)
+			throw error("empty factor");
+		char c = _s.charAt(_pos);
+		if (isDigit(c) || c == '.' || c == '-') {
+			_coef *= number();
+			return;
+		}
+		if (!isNameChar(c))
+			throw error("empty factor");
+		int nameStart = _pos;
+		int slot = name();
+		String var = _names[slot];
+		if (var.equals("NaN") || var.equals("Infinity")) { // as written by toString()
+			_coef *= var.equals("NaN") ? Double.NaN : Double.POSITIVE_INFINITY;
+			return;
+		}
+		int pow = 1; // if no power, defaults to 1
+		skipWhitespace();
+		if (_pos < _end && _s.charAt(_pos) == '^') {
+			_pos++;
+			skipWhitespace();
+			pow = integer();
+		}
+		if (_nameIds[slot] < 0)
+			_nameIds[slot] = Term.id(var);
+		int id = _nameIds[slot];
+		for (int i = 0; i < _nFactors; i++) // a term has few factors
+			if (_ids[i] == id)
+				throw new PolyException("ERROR: " + var + " appears twice in "
+						+ _s.subSequence(termStart, _pos) + " (at character " + nameStart + ")");
+		if (_nFactors == _ids.length) {
+			_ids = Arrays.copyOf(_ids, 2 * _nFactors);
+			_pows = Arrays.copyOf(_pows, 2 * _nFactors);
+		}
+		_ids[_nFactors] = id;
+		_pows[_nFactors++] = pow;
+	}
+
+	/** A decimal number with optional sign, fraction and exponent, or -Infinity */
+	private double number() throws PolyException {
+		int start = _pos;
+		boolean negative = false;
+		if (_s.charAt(_pos) == '-') {
+			negative = true;
+			_pos++;
+			if (_pos < _end && _s.charAt(_pos) == 'I') {
+				if (!_names[name()].equals("Infinity"))
+					throw error("could not parse number", start);
+				return Double.NEGATIVE_INFINITY;
+			}
+		}
+		long mantissa = 0L;
+		int exp10 = 0, nDigits = 0;
+		boolean exact = true; // false once a nonzero digit did not fit into mantissa
+		while (_pos < _end && isDigit(_s.charAt(_pos))) {
+			int d = _s.charAt(_pos++) - '0';
+			nDigits++;
+			if (mantissa <= MAX_MANTISSA)
+				mantissa = mantissa * 10 + d;
+			else {
+				exp10++;
+				exact &= d == 0;
+			}
+		}
+		if (_pos < _end && _s.charAt(_pos) == '.') {
+			_pos++;
+			while (_pos < _end && isDigit(_s.charAt(_pos))) {
+				int d = _s.charAt(_pos++) - '0';
+				nDigits++;
+				if (mantissa <= MAX_MANTISSA) {
+					mantissa = mantissa * 10 + d;
+					exp10--;
+				} else
+					exact &= d == 0;
+			}
+		}
+		if (nDigits == 0)
+			throw error("could not parse number", start);
+		if (_pos < _end && (_s.charAt(_pos) == 'e' || _s.charAt(_pos) == 'E')) {
+			_pos++;
+			boolean expNegative = false;
+			if (_pos < _end && (_s.charAt(_pos) == '-' || _s.charAt(_pos) == '+')) {
+				expNegative = _s.charAt(_pos) == '-';
+				_pos++;
+			}
+			int exp = 0, expDigits = 0;
+			while (_pos < _end && isDigit(_s.charAt(_pos))) {
+				exp = Math.min(exp * 10 + (_s.charAt(_pos) - '0'), 100000); // saturate, far out of range
+				_pos++;
+				expDigits++;
+			}
+			if (expDigits == 0)
+				throw error("could not parse number", start);
+			exp10 += expNegative ? -exp : exp;
+		}
+		if (_pos < _end && !isTerminator(_s.charAt(_pos)))
+			throw error("could not parse number", start);
+
+		if (!exact || exp10 < -22 || exp10 > 22) // rare: too many digits or a large exponent
+			return Double.parseDouble(_s.subSequence(start, _pos).toString());
+		// Both operands are exact doubles, so this is one correctly rounded operation
+		double value = exp10 < 0 ? mantissa / POW10[-exp10] : mantissa * POW10[exp10];
+		return negative ? -value : value;
+	}
+
+	/** An integer exponent with optional sign */
+	private int integer() throws PolyException {
+		int start = _pos;
+		boolean negative = false;
+		if (_pos < _end && _s.charAt(_pos) == '-') {
+			negative = true;
+			_pos++;
+		}
+		long value = 0L;
+		int nDigits = 0;
+		while (_pos < _end && isDigit(_s.charAt(_pos))) {
+			value = value * 10 + (_s.charAt(_pos) - '0');
+			if (value > Integer.MAX_VALUE)
+				throw error("exponent out of range", start);
+			_pos++;
+			nDigits++;
+		}
+		if (nDigits == 0 || (_pos < _end && !isTerminator(_s.charAt(_pos))))
+			throw error("could not parse exponent", start);
+		return (int)(negative ? -value : value);
+	}
+
+	/** A variable name, returned as its slot in the name cache */
+	private int name() {
+		int start = _pos, hash = 0;
+		while (_pos < _end && isNameChar(_s.charAt(_pos))) {
+			hash = 31 * hash + _s.charAt(_pos);
+			_pos++;
+		}
+		int mask = _names.length - 1;
+		for (int i = mix(hash) & mask; ; i = (i + 1) & mask) {
+			String name = _names[i];
+			if (name == null) {
+				_names[i] = _s.subSequence(start, _pos).toString();
+				_nameIds[i] = -1;
+				if (++_nNames * 2 > _names.length) {
+					growNames();
+					return find(hash, start, _pos);
+				}
+				return i;
+			}
+			if (name.hashCode() == hash && matches(name, start, _pos))
+				return i;
+		}
+	}
+
+	/** Returns the slot of a cached name */
+	private int find(int hash, int start, int end) {
+		int mask = _names.length - 1;
+		for (int i = mix(hash) & mask; ; i = (i + 1) & mask)
+			if (_names[i].hashCode() == hash && matches(_names[i], start, end))
+				return i;
+	}
+
+	private boolean matches(String name, int start, int end) {
+		if (name.length() != end - start)
+			return false;
+		for (int i = 0; i < name.length(); i++)
+			if (name.charAt(i) != _s.charAt(start + i))
+				return false;
+		return true;
+	}
+
+	private void growNames() {
+		String[] old = _names;
+		int[] oldIds = _nameIds;
+		_names = new String[old.length * 2];
+		_nameIds = new int[old.length * 2];
+		int mask = _names.length - 1;
+		for (int j = 0; j < old.length; j++)
+			if (old[j] != null) {
+				int i = mix(old[j].hashCode()) & mask;
+				while (_names[i] != null)
+					i = (i + 1) & mask;
+				_names[i] = old[j];
+				_nameIds[i] = oldIds[j];
+			}
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private void skipWhitespace() {
+		while (_pos < _end && _s.charAt(_pos) <= ' ') // as String.trim()
+			_pos++;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/** Characters that end a number, exponent or name */
+	private static boolean isTerminator(char c) {
+		return c <= ' ' || c == '*' || c == '+' || c == '^';
+	}
+
+	private static boolean isNameChar(char c) {
+		return !isTerminator(c);
+	}
+
+	private PolyException error(String message) {
+		return error(message, _pos);
+	}
+
+	private PolyException error(String message, int offset) {
+		return new PolyException("ERROR: " + message + " at character " + offset);
+	}
+
+	/** Parses a few examples, shows the error messages, and times parsing a
+	 *  200000-term polynomial
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Polynomial p = new PolyParser("2.000*x^2*y + -4.000*x + 2.5e-1").parsePolynomial();
+		System.out.println(p); // Should print "2.000*x^2*y + -4.000*x + 0.250"
+		System.out.println(new PolyParser(p.toString()).parsePolynomial().equals(p)); // Should print "true"
+		System.out.println(new PolyParser(" -0.5 * x^-2 * 3 ").parseTerm()); // Should print "-1.500*x^-2"
+
+		for (String bad : new String[] { "x^2 + + y", "2*x*y*x", "3*x^y", "x * 2z", "x^2 y" }) {
+			try {
+				new PolyParser(bad).parsePolynomial();
+			} catch (PolyException e) {
+				System.out.println("\"" + bad + "\": " + e.getMessage());
+			}
+		}
+		// Should print errors at characters 6, 6 (x twice), 4, 4 and 4
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200000; i++)
+			sb.append(i == 0 ? "" : " + ").append(i % 13 - 6.25).append("*x").append(i % 100)
+				.append("^2*y").append(i % 7).append("^").append(i % 5 + 1);
+		String text = sb.toString();
+		for (int rep = 0; rep < 3; rep++) { // the last run is warmed up
+			long start = System.nanoTime();
+			Polynomial big = new PolyParser(text).parsePolynomial();
+			if (rep == 2)
+				System.out.format("Parsed %d terms (%d chars) in %.0f ms\n", big.getNumTerms(), text.length(),
+						(System.nanoTime() - start) / 1e6);
+		}
+	}
+}
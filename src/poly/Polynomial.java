@@ -1,12 +1,17 @@
 package poly;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import util.Vector;
 import util.VectorException;
@@ -21,6 +26,13 @@ public class Polynomial {
 
 	private ArrayList<Term> _terms; // The Polynomial is the sum of these Terms
 
+	// evaluate(...) and differentiate(...) split the terms into fixed-size chunks and
+	// run them on _parallelPool (null: the common ForkJoinPool) when there are at
+	// least this many terms
+	private static volatile int _parallelThreshold = 100000;
+	private static volatile ForkJoinPool _parallelPool = null;
+	private static final int PARALLEL_CHUNK = 8192; // terms per parallel chunk
+
 	/** This constructor has been implemented for you.  It simply initializes an
 	 *  empty term list.
 	 * 
@@ -39,10 +51,15 @@ public class Polynomial {
 
 		if (s == null || s.trim().equals(""))
 			throw new PolyException("Empty Polynomial, cannot read");
-		_terms = new ArrayList<Term>();
-		String[] terms = s.split("\\+");
-		for (String term : terms)
-			_terms.add(new Term(term));
+		_terms = new PolyParser(s).parseTerms();
+	}
+
+	/** Package-private: a Polynomial that is the sum of terms (used by PolyParser)
+	 *
+	 * @param terms
+	 */
+	Polynomial(ArrayList<Term> terms) {
+		_terms = terms;
 	}
 	
 	/** Produce a re-parseable representation of this Polynomial as a String.  This
@@ -66,11 +83,9 @@ public class Polynomial {
 	//       the implementation of the methods below.
 	///////////////////////////////////////////////////////////////////////////////
 
-	/** This method takes a file (e.g., new File("files/poly1.txt")) which on its
-	 *  first line should contain a syntactically correct Polynomial as parsed by 
-	 *  new Polynomial(String s) above and return that Polynomial.
-	 *  
-	 *  You need to implement this method... it requires file I/O!
+	/** This method takes a file (e.g., new File("files/poly1.txt")) which should
+	 *  contain a syntactically correct Polynomial as parsed by new Polynomial(String s)
+	 *  above (possibly written across several lines) and return that Polynomial.
 	 * 
 	 * @param file
 	 * @return
@@ -79,8 +94,8 @@ public class Polynomial {
 	 */
 	public static Polynomial ReadPolynomial(File file) throws PolyException, IOException {
 
-		BufferedReader fin = new BufferedReader(new FileReader (file));
-        return new Polynomial(fin.readLine());
+		// Memory-mapped and parsed in chunks, see PolyFileReader
+		return new PolyFileReader().read(file);
 	}
 	
 	/** Returns all of the variables used in this Polynomial as a sorted set (TreeSet).
@@ -95,6 +110,135 @@ public class Polynomial {
         return tset;
 	}
 	
+	/** Sets the number of terms from which evaluate(...) and differentiate(...)
+	 *  switch to their parallel versions (and Minimizer builds partials in parallel)
+	 *
+	 * @param threshold
+	 */
+	public static void setParallelThreshold(int threshold) {
+		_parallelThreshold = threshold;
+	}
+
+	public static int getParallelThreshold() {
+		return _parallelThreshold;
+	}
+
+	/** Sets the pool the parallel versions of evaluate(...) and differentiate(...)
+	 *  run their chunks on
+	 *
+	 * @param pool -- null for the common ForkJoinPool (the default)
+	 */
+	public static void setParallelPool(ForkJoinPool pool) {
+		_parallelPool = pool;
+	}
+
+	/** Same result as evaluate(...), computed on the parallel pool.  The terms
+	 *  are split into fixed-size chunks, each chunk is summed in order, and the chunk
+	 *  sums are added in chunk order, so the result does not depend on the number
+	 *  of threads (though it may differ from the sequential sum in the last bits).
+	 *
+	 * @param assignments
+	 * @return
+	 * @throws Exception
+	 */
+	public double evaluateParallel(final Vector assignments) throws Exception {
+		final double[] chunkSums = new double[numChunks()];
+		forEachChunk(new ChunkTask() {
+			public void run(int chunk, int from, int to) throws Exception {
+				double sum = 0d;
+				for (int i = from; i < to; i++)
+					sum += _terms.get(i).evaluate(assignments);
+				chunkSums[chunk] = sum;
+			}
+		});
+		double sum = 0d;
+		for (double chunkSum : chunkSums)
+			sum += chunkSum;
+		return sum;
+	}
+
+	/** Same result as differentiate(...) (same terms in the same order), computed on
+	 *  the parallel pool one chunk of terms per task (see setParallelPool(...)).
+	 *
+	 * @param var
+	 * @return
+	 * @throws Exception
+	 */
+	public Polynomial differentiateParallel(final String var) throws Exception {
+		if (var == null)
+			throw new PolyException("Cannot differentiate with respect to a null variable");
+		final ArrayList<ArrayList<Term>> chunkTerms = new ArrayList<ArrayList<Term>>();
+		for (int c = 0; c < numChunks(); c++)
+			chunkTerms.add(new ArrayList<Term>());
+		forEachChunk(new ChunkTask() {
+			public void run(int chunk, int from, int to) throws Exception {
+				ArrayList<Term> terms = chunkTerms.get(chunk);
+				for (int i = from; i < to; i++) {
+					Term dt = _terms.get(i).differentiate(var);
+					if (dt.getCoef() != 0)
+						terms.add(dt);
+				}
+			}
+		});
+		Polynomial p = new Polynomial();
+		for (ArrayList<Term> terms : chunkTerms)
+			p._terms.addAll(terms);
+		return p;
+	}
+
+	/** Work on the terms from (inclusive) to to (exclusive) of chunk number chunk */
+	private interface ChunkTask {
+		public void run(int chunk, int from, int to) throws Exception;
+	}
+
+	private int numChunks() {
+		return (_terms.size() + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+	}
+
+	/** Runs task on every chunk of PARALLEL_CHUNK terms on _parallelPool (or the
+	 *  common ForkJoinPool) and waits for all of them, rethrowing the first failure
+	 */
+	private void forEachChunk(final ChunkTask task) throws Exception {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int c = 0; c < numChunks(); c++) {
+			final int chunk = c;
+			tasks.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					int from = chunk * PARALLEL_CHUNK;
+					task.run(chunk, from, Math.min(_terms.size(), from + PARALLEL_CHUNK));
+					return null;
+				}
+			});
+		}
+		try {
+			ForkJoinPool pool = _parallelPool;
+			for (Future<Void> f : (pool == null ? ForkJoinPool.commonPool() : pool).invokeAll(tasks))
+				f.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception)e.getCause();
+			throw e;
+		}
+	}
+
+	/** Returns the number of terms of this Polynomial (0 for the zero Polynomial)
+	 *
+	 */
+	public int getNumTerms() {
+		return _terms.size();
+	}
+
+	/** Returns a new set of the terms of this Polynomial.  For canonical
+	 *  Polynomials, equal term sets mean equal Polynomials and the hashCode() of
+	 *  the set is the hashCode() of the Polynomial, so callers that compare a
+	 *  canonical form many times can keep its term set instead of canonicalizing
+	 *  again in equals(...) and hashCode()
+	 *
+	 */
+	public HashSet<Term> getTermSet() {
+		return new HashSet<Term>(_terms);
+	}
+
 	/** If Polynomial defines f(x,y) = 2xy^2 + xy and assignments is { x=2.0 y=3.0 } 
 	 *  then this method returns 42.0, which is the evaluation of f(2.0,3.0).  
 	 *  Incidentally, this is also the "Answer to the Ultimate Question of Life, the 
@@ -106,6 +250,8 @@ public class Polynomial {
 	 * (can throw either a VectorException or a PolyException -- Exception is a superclass)
 	 */
 	public double evaluate(Vector assignments) throws Exception {
+		if (_terms.size() >= _parallelThreshold)
+			return evaluateParallel(assignments);
 		double sum = 0;
 		for (int i = 0 ; i < _terms.size(); i++) {
 			sum += _terms.get(i).evaluate(assignments);
@@ -113,6 +259,43 @@ public class Polynomial {
 		return sum;
 	}
 
+	/** Evaluates this Polynomial at the point of powers, reading every x_i^k from
+	 *  its tables; the same value as evaluate(Vector) up to the last bits.  Use
+	 *  one PowerTable for an objective and all of its partials so the powers of
+	 *  each point are computed once.
+	 *
+	 * @param powers -- must have had this Polynomial added, see PowerTable.add(...)
+	 * @return
+	 * @throws Exception
+	 */
+	public double evaluate(final PowerTable powers) throws Exception {
+		if (_terms.size() >= _parallelThreshold) {
+			final double[] chunkSums = new double[numChunks()];
+			forEachChunk(new ChunkTask() {
+				public void run(int chunk, int from, int to) throws Exception {
+					double sum = 0d;
+					for (int i = from; i < to; i++)
+						sum += _terms.get(i).evaluate(powers);
+					chunkSums[chunk] = sum;
+				}
+			});
+			double sum = 0d;
+			for (double chunkSum : chunkSums)
+				sum += chunkSum;
+			return sum;
+		}
+		double sum = 0d;
+		for (Term term : _terms)
+			sum += term.evaluate(powers);
+		return sum;
+	}
+
+	/** Adds the variables and exponents of all Terms to table (see PowerTable) */
+	void addPowers(PowerTable table) {
+		for (Term term : _terms)
+			term.addPowers(table);
+	}
+
 	/** If Polynomial defines a function f(.) then this method returns the **symbolic**
 	 *  partial derivative (which you can verify from calculus is still a Polynomial):
 	 *  
@@ -128,11 +311,14 @@ public class Polynomial {
 	 * @throws VectorException 
 	 */
 	public Polynomial differentiate(String var) throws Exception {
+		if (var != null && _terms.size() >= _parallelThreshold)
+			return differentiateParallel(var);
 		if(var != null) {
 			Polynomial p = new Polynomial();
 			for(int i = 0 ; i < this._terms.size() ; i++) {
-				if(this._terms.get(i).differentiate(var).getCoef() != 0) {
-					p._terms.add(this._terms.get(i).differentiate(var));
+				Term dt = this._terms.get(i).differentiate(var);
+				if(dt.getCoef() != 0) {
+					p._terms.add(dt);
 				}
 			}
 			return p;
@@ -142,6 +328,209 @@ public class Polynomial {
 		}
 	}
 
+	/** Returns all partial derivatives of this Polynomial at once, as a map from
+	 *  every variable of getAllVars() to the **new** Polynomial d(this) / d(var).
+	 *  Each partial equals differentiate(var), but they are built in a single pass
+	 *  over the terms: each Term only contributes to the variables it contains,
+	 *  so the cost is proportional to the total number of factors instead of
+	 *  (number of variables) x (number of terms).
+	 *
+	 * @return
+	 */
+	public HashMap<String,Polynomial> gradient() {
+		HashMap<String,Polynomial> partials = new HashMap<String,Polynomial>();
+		for (Term term : _terms)
+			for (int i = 0; i < term.getNumVars(); i++) {
+				String var = term.getVar(i);
+				Polynomial dp = partials.get(var);
+				if (dp == null) {
+					dp = new Polynomial();
+					partials.put(var, dp);
+				}
+				if (term.getCoef() * term.getPow(i) != 0)
+					dp._terms.add(term.partial(i));
+			}
+		return partials;
+	}
+
+	/** Returns a **new** Polynomial in canonical form: every Term is canonicalized
+	 *  (variables sorted), like terms are merged by adding their coefficients, and
+	 *  terms whose coefficient becomes 0 are dropped.  Terms keep the order in which
+	 *  their monomial first appears.  For example x*y + 2*x + y*x + -2*x becomes
+	 *  2.000*x*y.
+	 *
+	 * @return
+	 */
+	public Polynomial canonicalize() {
+		// Hashed index from monomial to the merged Term for that monomial
+		LinkedHashMap<Term.Monomial,Term> monomial2term = new LinkedHashMap<Term.Monomial,Term>();
+		for (Term term : _terms) {
+			Term.Monomial key = term.getMonomialKey();
+			Term merged = monomial2term.get(key);
+			if (merged == null)
+				monomial2term.put(key, term.canonicalize());
+			else
+				monomial2term.put(key, merged.withCoef(merged.getCoef() + term.getCoef()));
+		}
+		Polynomial p = new Polynomial();
+		for (Term term : monomial2term.values())
+			if (term.getCoef() != 0d)
+				p._terms.add(term);
+		return p;
+	}
+
+	/** Tests whether another Object o is a Polynomial with the same canonical
+	 *  form as *this* (so x*y + y*x equals 2*x*y, and term order does not matter).
+	 *
+	 * @param o the object to compare to
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Polynomial))
+			return false;
+		Polynomial p1 = canonicalize();
+		Polynomial p2 = ((Polynomial)o).canonicalize();
+		return p1._terms.size() == p2._terms.size() && p1.getTermSet().equals(p2.getTermSet());
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 0; // Sum so that the hash does not depend on term order
+		for (Term term : canonicalize()._terms)
+			hash += term.hashCode();
+		return hash;
+	}
+
+	/** Compiles this Polynomial into an immutable, array-based CompiledPolynomial
+	 *  that evaluates on a double[] point where point[i] holds the value of
+	 *  variableOrder.get(i).
+	 *
+	 * @param variableOrder -- must contain every variable of this Polynomial
+	 * @return
+	 * @throws PolyException if a variable of this Polynomial is missing from variableOrder
+	 */
+	public CompiledPolynomial compile(List<String> variableOrder) throws PolyException {
+		if (variableOrder == null)
+			throw new PolyException("Cannot compile with a null variable order");
+		String[] vars = variableOrder.toArray(new String[variableOrder.size()]);
+		return compile(vars, indexVars(vars));
+	}
+
+	/** Compiles each of polys over the same variableOrder.  Equivalent to calling
+	 *  compile(variableOrder) on each, but the variable index is built once and the
+	 *  results share one variable array, so compiling the n partials of an
+	 *  n-variable polynomial costs O(n + terms) instead of O(n^2).
+	 *
+	 * @param polys -- null entries give null results
+	 * @param variableOrder
+	 * @return
+	 * @throws PolyException if a variable is missing from variableOrder
+	 */
+	public static CompiledPolynomial[] compile(List<Polynomial> polys, List<String> variableOrder)
+			throws PolyException {
+		if (variableOrder == null)
+			throw new PolyException("Cannot compile with a null variable order");
+		String[] vars = variableOrder.toArray(new String[variableOrder.size()]);
+		HashMap<String,Integer> var2index = indexVars(vars);
+		CompiledPolynomial[] compiled = new CompiledPolynomial[polys.size()];
+		for (int i = 0; i < compiled.length; i++)
+			compiled[i] = polys.get(i) == null ? null : polys.get(i).compile(vars, var2index);
+		return compiled;
+	}
+
+	private static HashMap<String,Integer> indexVars(String[] vars) throws PolyException {
+		HashMap<String,Integer> var2index = new HashMap<String,Integer>();
+		for (int i = 0; i < vars.length; i++)
+			if (var2index.put(vars[i], i) != null)
+				throw new PolyException("ERROR: " + vars[i] + " appears twice in variable order");
+		return var2index;
+	}
+
+	private CompiledPolynomial compile(String[] vars, HashMap<String,Integer> var2index) throws PolyException {
+		int nnz = 0;
+		for (Term t : _terms)
+			nnz += t.getNumVars();
+
+		double[] coefs = new double[_terms.size()];
+		int[] termStart = new int[_terms.size() + 1];
+		int[] varIdx = new int[nnz];
+		int[] pows = new int[nnz];
+		int k = 0;
+		for (int t = 0; t < _terms.size(); t++) {
+			Term term = _terms.get(t);
+			coefs[t] = term.getCoef();
+			termStart[t] = k;
+			for (int i = 0; i < term.getNumVars(); i++) {
+				Integer index = var2index.get(term.getVar(i));
+				if (index == null)
+					throw new PolyException("ERROR: " + term.getVar(i) + " is not in the variable order");
+				varIdx[k] = index;
+				pows[k] = term.getPow(i);
+				k++;
+			}
+		}
+		termStart[_terms.size()] = k;
+		return new CompiledPolynomial(vars, coefs, termStart, varIdx, pows);
+	}
+
+	/** Compiles this Polynomial using its own sorted variables (getAllVars()) as
+	 *  the variable order.
+	 *
+	 * @return
+	 * @throws PolyException
+	 */
+	public CompiledPolynomial compile() throws PolyException {
+		return compile(new ArrayList<String>(getAllVars()));
+	}
+
+	/** Copies this Polynomial into off-heap storage (see PackedPolynomial), with
+	 *  variables numbered in order of first appearance.  To read a polynomial that
+	 *  is too large for the heap, use PolyFileReader.readPacked(...) instead.
+	 *
+	 * @return
+	 * @throws PolyException if the terms do not fit into direct buffers
+	 */
+	public PackedPolynomial pack() throws PolyException {
+		PackedPolynomial.Builder builder = new PackedPolynomial.Builder();
+		for (Term t : _terms)
+			builder.addTerm(t);
+		return builder.build();
+	}
+
+	/** Evaluates this Polynomial at many points at once; see
+	 *  CompiledPolynomial.evaluateBatch(...).  columns[i] holds the
+	 *  values of variableOrder.get(i) at each of the n points.  When evaluating the
+	 *  same Polynomial repeatedly, compile it once and call evaluateBatch on the
+	 *  CompiledPolynomial instead.
+	 *
+	 * @param variableOrder -- must contain every variable of this Polynomial
+	 * @param columns -- one double[] of length >= n per variable
+	 * @param n -- number of points
+	 * @param out -- receives the n values
+	 * @throws PolyException if a variable of this Polynomial is missing from variableOrder
+	 */
+	public void evaluateBatch(List<String> variableOrder, double[][] columns, int n, double[] out)
+			throws PolyException {
+		if (variableOrder == null || columns == null || columns.length != variableOrder.size())
+			throw new PolyException("Need one column per variable in the variable order");
+		canonicalize().compile(variableOrder).evaluateBatch(columns, n, out);
+	}
+
+	/** Builds the cheapest available evaluator for this Polynomial over
+	 *  variableOrder: the multivariate Horner plan when it needs fewer
+	 *  multiplications than term-by-term evaluation, otherwise the
+	 *  CompiledPolynomial.  Like terms are merged first.
+	 *
+	 * @param variableOrder -- must contain every variable of this Polynomial
+	 * @return
+	 * @throws PolyException if a variable of this Polynomial is missing from variableOrder
+	 */
+	public PolyEvaluator buildEvaluator(List<String> variableOrder) throws PolyException {
+		CompiledPolynomial cp = canonicalize().compile(variableOrder);
+		HornerPlan hp = HornerPlan.build(cp);
+		return hp.getMultCount() < cp.getMultCount() ? hp : cp;
+	}
+
 	/** Some examples testing the Polynomial and Term classes with expected output.
 	 *  The functionality below will be tested standalone for grading.
 	 *  
@@ -173,5 +562,34 @@ public class Polynomial {
 		System.out.println("p(x0)     = " + p.evaluate(x0));     // Should print "5.0"
 		System.out.println("dp/dx(x0) = " + dp_dx.evaluate(x0)); // Should print "-6.0"
 		System.out.println("dp/dy(x0) = " + dp_dy.evaluate(x0)); // Should print "0.0"
+
+		// Canonical form merges like terms regardless of variable order
+		Polynomial q = new Polynomial("x*y + 2*x + y*x + -2*x");
+		System.out.println("Canonical:  " + q.canonicalize()); // Should print "2.000*x*y"
+		System.out.println("Equal:      " + q.equals(new Polynomial("2*y*x"))); // Should print "true"
+
+		// Parallel evaluation and differentiation give the same results on the common
+		// pool as on one thread, where the chunks run one after the other in order
+		// (non-integer coefficients, so a different order of the sums would show)
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 50000; i++)
+			sb.append(i == 0 ? "" : " + ").append((i % 7 - 3) / 3d).append("*x^").append(i % 5 + 1).append("*y");
+		Polynomial big = new Polynomial(sb.toString());
+		Vector at = new Vector("{ x=1.1 y=0.7 }");
+		double parallel = big.evaluateParallel(at);
+		String parallelDx = big.differentiateParallel("x").toString();
+		ForkJoinPool oneThread = new ForkJoinPool(1);
+		setParallelPool(oneThread);
+		double ordered = big.evaluateParallel(at);
+		String orderedDx = big.differentiateParallel("x").toString();
+		setParallelPool(null);
+		oneThread.shutdown();
+		System.out.println("Parallel:   " + (parallel == ordered) + " " + parallelDx.equals(orderedDx)
+				+ " " + parallelDx.equals(big.differentiate("x").toString()));
+		// Should print "true true true"
+
+		HashMap<String,Polynomial> grad = p.gradient();
+		System.out.println("Gradient:   " + grad.get("x").equals(dp_dx) + " " + grad.get("y").equals(dp_dy));
+		// Should print "true true"
 	}
 }
@@ -0,0 +1,191 @@
+package poly;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import util.Vector;
+import util.VectorException;
+
+/** An evaluation context shared by a Polynomial and its partial derivatives:
+ *  for one point it holds, per variable, the table x^minPow .. x^maxPow of all
+ *  the powers that the added polynomials use.  setPoint(...) fills the tables
+ *  once (by repeated multiplication, one multiply per entry), after which
+ *  Polynomial.evaluate(PowerTable) on the objective and on every partial reads
+ *  each x_i^k from the table instead of calling Math.pow(...) per factor.
+ *
+ *  For p = 3*x^4*y + x^2 + y^-1 after add(p) and setPoint({ x=2.0 y=4.0 }):
+ *
+ *    x: powers 0..4  = [1, 2, 4, 8, 16]
+ *    y: powers -1..1 = [0.25, 1, 4]
+ *
+ *  Variables are addressed by their Term ids.  As in Term.evaluate(Vector), a
+ *  variable missing from the point contributes a factor of 1.  Powers built by
+ *  multiplication can differ from Math.pow(...) in the last bits.
+ *
+ *  A PowerTable is not thread-safe while setPoint(...) runs; between calls it is
+ *  only read, so polynomials may be evaluated from it concurrently.
+ *
+ */
+public class PowerTable {
+
+	private int[] _slot;          // by Term id: index of the variable in the table, or -1
+	private String[] _names;      // by slot: variable name
+	private int[] _minPow;        // by slot: lowest exponent needed (<= 0)
+	private int[] _maxPow;        // by slot: highest exponent needed (>= 0)
+	private double[][] _powers;   // by slot: _powers[s][k - _minPow[s]] = x^k
+	private int _nVars;
+
+	/** Constructor of an empty table
+	 *
+	 */
+	public PowerTable() {
+		_slot = new int[0];
+		_names = new String[8];
+		_minPow = new int[8];
+		_maxPow = new int[8];
+		_powers = new double[8][];
+		_nVars = 0;
+	}
+
+	/** Constructor of a table for p and its partial derivatives
+	 *
+	 * @param p
+	 * @param partials -- e.g. from Polynomial.gradient(), may be null
+	 */
+	public PowerTable(Polynomial p, Map<String,Polynomial> partials) {
+		this();
+		add(p);
+		if (partials != null)
+			for (Polynomial dp : partials.values())
+				add(dp);
+	}
+
+	/** Adds the variables and exponents used by p; call setPoint(...) afterwards
+	 *
+	 * @param p
+	 */
+	public void add(Polynomial p) {
+		p.addPowers(this);
+	}
+
+	/** Returns the number of variables in the table
+	 *
+	 */
+	public int getNumVars() {
+		return _nVars;
+	}
+
+	/** Makes room for x^pow of the variable with Term id id */
+	void need(int id, int pow) {
+		if (id >= _slot.length) {
+			int old = _slot.length;
+			_slot = Arrays.copyOf(_slot, Math.max(id + 1, 2 * old));
+			Arrays.fill(_slot, old, _slot.length, -1);
+		}
+		int s = _slot[id];
+		if (s < 0) {
+			if (_nVars == _names.length) {
+				_names = Arrays.copyOf(_names, 2 * _nVars);
+				_minPow = Arrays.copyOf(_minPow, 2 * _nVars);
+				_maxPow = Arrays.copyOf(_maxPow, 2 * _nVars);
+				_powers = Arrays.copyOf(_powers, 2 * _nVars);
+			}
+			s = _slot[id] = _nVars++;
+			_names[s] = Term.name(id);
+		}
+		if (pow < _minPow[s] || pow > _maxPow[s] || _powers[s] == null) {
+			_minPow[s] = Math.min(_minPow[s], pow);
+			_maxPow[s] = Math.max(_maxPow[s], pow);
+			_powers[s] = new double[_maxPow[s] - _minPow[s] + 1];
+		}
+	}
+
+	/** Fills the tables with the powers of the values in x
+	 *
+	 * @param x
+	 * @throws VectorException
+	 */
+	public void setPoint(Vector x) throws VectorException {
+		for (int s = 0; s < _nVars; s++) {
+			double[] p = _powers[s];
+			int zero = -_minPow[s]; // index of x^0
+			if (!x.getKeySet().contains(_names[s])) {
+				Arrays.fill(p, 1d);
+				continue;
+			}
+			double v = x.getValAt(_names[s]), inv = 1d / v;
+			p[zero] = 1d;
+			for (int k = zero + 1; k < p.length; k++)
+				p[k] = p[k - 1] * v;
+			for (int k = zero - 1; k >= 0; k--)
+				p[k] = p[k + 1] * inv;
+		}
+	}
+
+	/** Returns x^pow for the variable with Term id id; both must have been added */
+	double get(int id, int pow) {
+		int s = _slot[id];
+		return _powers[s][pow - _minPow[s]];
+	}
+
+	/** Compares evaluating an objective and its gradient through Vectors with
+	 *  evaluating them from one PowerTable per point
+	 *
+	 * @param args - unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Polynomial p = new Polynomial("3*x^4*y + x^2 + y^-1");
+		PowerTable table = new PowerTable(p, null);
+		table.setPoint(new Vector("{ x=2.0 y=4.0 }"));
+		System.out.println(p.evaluate(table)); // Should print "196.25"
+
+		// Dense degree-8 polynomial in 4 variables and its gradient
+		StringBuilder sb = new StringBuilder();
+		String[] vars = { "a", "b", "c", "d" };
+		int n = 0;
+		for (int i = 0; i <= 8; i++)
+			for (int j = 0; i + j <= 8; j++)
+				for (int k = 0; i + j + k <= 8; k++)
+					for (int l = 0; i + j + k + l <= 8; l++)
+						sb.append(n++ == 0 ? "" : " + ").append((n % 7 - 3) * 0.25).append("*a^" + i)
+							.append("*b^" + j).append("*c^" + k).append("*d^" + l);
+		p = new Polynomial(sb.toString());
+		HashMap<String,Polynomial> gradient = p.gradient();
+		table = new PowerTable(p, gradient);
+		Vector x = new Vector("{ a=0.5 b=-0.75 c=1.25 d=0.9 }");
+
+		double maxDiff = 0d;
+		table.setPoint(x);
+		maxDiff = Math.max(maxDiff, Math.abs(p.evaluate(x) - p.evaluate(table)));
+		for (String var : vars)
+			maxDiff = Math.max(maxDiff, Math.abs(gradient.get(var).evaluate(x) - gradient.get(var).evaluate(table)));
+		System.out.format("%d terms, max difference %s\n", p.getNumTerms(), maxDiff < 1e-9 ? "< 1e-9" : maxDiff);
+
+		for (int rep = 0; rep < 2; rep++) { // the second round is warmed up
+			int reps = 2000;
+			double sink = 0d;
+			long start = System.nanoTime();
+			for (int r = 0; r < reps; r++) {
+				sink += p.evaluate(x);
+				for (String var : vars)
+					sink += gradient.get(var).evaluate(x);
+			}
+			double vectorNs = (System.nanoTime() - start) / (double)reps;
+			start = System.nanoTime();
+			for (int r = 0; r < reps; r++) {
+				table.setPoint(x);
+				sink += p.evaluate(table);
+				for (String var : vars)
+					sink += gradient.get(var).evaluate(table);
+			}
+			double tableNs = (System.nanoTime() - start) / (double)reps;
+			if (sink == 42d)
+				System.out.print("");
+			if (rep == 1)
+				System.out.format("ns per objective + gradient: Vector = %.0f, PowerTable = %.0f (%.1fx)\n",
+						vectorNs, tableNs, vectorNs / tableNs);
+		}
+	}
+}
@@ -1,38 +1,50 @@
 package poly;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.TreeSet;
 
+import util.VariableIndex;
 import util.Vector;
 import util.VectorException;
 
 /** Implements an individual term in a polynomial.  If 5x^2 + 3xy is a polynomial,
  *  it has two terms 5x^2 and 2xy, each of which would be represented by a different
  *  instance of this class.
+ *
+ *  Terms are immutable, so derived Terms share arrays with the Term they came
+ *  from where they can.  Variables are stored as ids from one global interner
+ *  (VARS), sorted so that a variable is found by binary search, and exponents
+ *  as a plain int[]; the order in which the variables were written is kept so
+ *  toString() is unchanged.
  * 
  * @author ssanner@mie.utoronto.ca
  *
  */
 public class Term {
-	
-	// For term 2.1*x^4*y*z^2, the data members would take values as follows:
-	private double _coef; // = 2.1
-	private ArrayList<String>  _vars; // = ["x", "y", "z"]
-	private ArrayList<Integer> _pows; // = [4, 1, 2]
+
+	// Global variable name <-> id interner shared by all Terms (names are never removed)
+	private static final VariableIndex VARS = new VariableIndex();
+	private static final int[] NONE = new int[0];
+
+	// For term 2.1*x^4*y*z^2 where the ids of x, y, z are 5, 2, 9, the data members
+	// would take values as follows:
+	private final double _coef;  // = 2.1
+	private final int[]  _ids;   // = [2, 5, 9]  (ascending)
+	private final int[]  _pows;  // = [1, 4, 2]  (_pows[j] is the exponent of _ids[j])
+	private final int[]  _order; // = [1, 0, 2]  (position in _ids of the i-th variable as written,
+	                             //    null when the variables were written in ascending id order)
 
 	/** This constructor has been implemented for you.
 	 * 
 	 * @param coef -- sets the _coef member
 	 */
 	public Term(double coef) {
-		_coef = coef;
-		_vars = new ArrayList<String>();
-		_pows = new ArrayList<Integer>();
+		this(coef, NONE, NONE, null);
 	}
 	
 	/** This constructor has been implemented for you -- it parses a term 
-	 *  representation from a String into the format required by this class.
-	 *  You need to understand the following code.
+	 *  representation from a String into the format required by this class
+	 *  (see PolyParser for the format).
 	 * 
 	 * @param s -- String to parse
 	 * @throws PolyException if s is malformed
@@ -42,41 +54,79 @@ public class Term {
 		if (s == null || s.trim().equals(""))
 			throw new PolyException("Empty Term, cannot read");
 		
-		// Initialize this term
-		_coef = 1.0d; // Will multiply any constants by this
-		_vars = new ArrayList<String>();
-		_pows = new ArrayList<Integer>();
-
-		// You need to understand all lines of the following code
-		String[] factors = s.split("\\*");
-		for (String factor : factors) { 
-			factor = factor.trim(); // Get rid of leading and trailing whitespace
-			try {
-				// If successful, multiplies in a constant (multiple constants in a product allowed)
-				_coef *= Double.parseDouble(factor); 					
-			} catch (NumberFormatException e) {
-				// If not a coefficient, must be a factor "<var>^<pow>"
-				// Must be a variable to a power -- parse the factor and add to list
-				int pow = 1; // If no power, defaults to 1
-				String[] var_pow = factor.split("\\^");
-				String var = var_pow[0];
-				if (var_pow.length == 2) {
-					try { // Second part must be exponent
-						pow = Integer.parseInt(var_pow[1]);
-					} catch (NumberFormatException f) {
-						throw new PolyException("ERROR: could not parse " + factor);
-					}
-				} else if (var_pow.length > 2) 
-					throw new PolyException("ERROR: could not parse " + factor);
-				
-				// Successfully parsed variable and power, add to list
-				if (_vars.contains(var))
-					throw new PolyException("ERROR: " + var + " appears twice in " + s);
-				_vars.add(var);
-				_pows.add(pow);
-			}
+		// Parse with the single-pass PolyParser and take over its fields
+		Term t = new PolyParser(s).parseTerm();
+		_coef = t._coef;
+		_ids = t._ids;
+		_pows = t._pows;
+		_order = t._order;
+	}
+
+	/** Builds the Term coef * prod_i (ids[i])^pows[i] for i < n, with the
+	 *  variables in the order written; ids must be distinct.  The arrays are copied.
+	 *
+	 * @param coef
+	 * @param ids -- variable ids from id(...)
+	 * @param pows
+	 * @param n -- number of factors
+	 */
+	Term(double coef, int[] ids, int[] pows, int n) {
+		_coef = coef;
+		boolean ascending = true;
+		for (int i = 1; i < n; i++)
+			ascending &= ids[i - 1] < ids[i];
+		if (ascending) {
+			_ids = n == 0 ? NONE : Arrays.copyOf(ids, n);
+			_pows = n == 0 ? NONE : Arrays.copyOf(pows, n);
+			_order = null;
+			return;
+		}
+		// Insertion sort of the (few) factor positions by id
+		int[] sorted = new int[n];
+		for (int i = 0; i < n; i++) {
+			int j = i;
+			for (; j > 0 && ids[sorted[j - 1]] > ids[i]; j--)
+				sorted[j] = sorted[j - 1];
+			sorted[j] = i;
+		}
+		_ids = new int[n];
+		_pows = new int[n];
+		_order = new int[n];
+		for (int j = 0; j < n; j++) {
+			_ids[j] = ids[sorted[j]];
+			_pows[j] = pows[sorted[j]];
+			_order[sorted[j]] = j;
 		}
 	}
+
+	/** Shares the given (already sorted) arrays */
+	private Term(double coef, int[] ids, int[] pows, int[] order) {
+		_coef = coef;
+		_ids = ids;
+		_pows = pows;
+		_order = order;
+	}
+
+	/** Returns the global id of var, assigning the next free id if var is new
+	 *
+	 * @param var
+	 * @throws PolyException if var is null
+	 */
+	static int id(String var) throws PolyException {
+		try {
+			return VARS.getOrAdd(var);
+		} catch (VectorException e) {
+			throw new PolyException(e.getMessage());
+		}
+	}
+
+	/** Returns the variable name of a global id
+	 *
+	 * @param id
+	 */
+	static String name(int id) {
+		return VARS.getName(id);
+	}
 	
 	/** Produce a re-parseable representation of this Term as a String.  This
 	 *  has been done for you.
@@ -87,9 +137,9 @@ public class Term {
 		// immutable.  StringBuilder is much more efficient for append.
 		StringBuilder sb = new StringBuilder();
 		sb.append(String.format("%01.3f", _coef));
-		for (int i = 0; i < _vars.size(); i++) {
-			String var = _vars.get(i);
-			int pow = _pows.get(i);
+		for (int i = 0; i < _ids.length; i++) {
+			String var = getVar(i);
+			int pow = getPow(i);
 			sb.append("*" + var + (pow == 1 ? "" : "^" + pow));
 		}
 		return sb.toString();
@@ -104,7 +154,10 @@ public class Term {
 	public TreeSet<String> getAllVars() {
 		// TreeSets are like HashSets but sorted alphabetically (lookup and insertion are
 		// a little less efficient than HashSets, but this won't matter for our sizes).
-		return new TreeSet<String>(_vars);
+		TreeSet<String> vars = new TreeSet<String>();
+		for (int id : _ids)
+			vars.add(name(id));
+		return vars;
 	}
 		
 	///////////////////////////////////////////////////////////////////////////////
@@ -115,10 +168,174 @@ public class Term {
 	public double getCoef() {
 		return _coef;
 	}
+
+	/** Returns whether var is one of the variables of this Term (binary search)
+	 *
+	 * @param var
+	 */
+	boolean hasVar(String var) {
+		return indexOf(var) >= 0;
+	}
+
+	/** Returns the position in _ids of var, or -1 */
+	private int indexOf(String var) {
+		int id = VARS.getIndex(var);
+		if (id < 0)
+			return -1;
+		int j = Arrays.binarySearch(_ids, id);
+		return j < 0 ? -1 : j;
+	}
+
+	/** Returns the number of variables (factors) in this Term
+	 *
+	 */
+	int getNumVars() {
+		return _ids.length;
+	}
+
+	/** Returns the global id of the i-th variable of this Term (in the order written)
+	 *
+	 * @param i
+	 */
+	int getVarId(int i) {
+		return _ids[_order == null ? i : _order[i]];
+	}
+
+	/** Returns the name of the i-th variable of this Term (in the order written)
+	 *
+	 * @param i
+	 */
+	String getVar(int i) {
+		return name(getVarId(i));
+	}
+
+	/** Returns the exponent of the i-th variable of this Term (in the order written)
+	 *
+	 * @param i
+	 */
+	int getPow(int i) {
+		return _pows[_order == null ? i : _order[i]];
+	}
+
 	
-	
+	/** Returns a **new** Term in canonical form: the same coefficient with the
+	 *  variables sorted by name and any zero exponents (x^0) dropped.  For example
+	 *  3*y^2*x becomes 3*x*y^2.
+	 *
+	 * @return
+	 */
+	public Term canonicalize() {
+		int n = 0;
+		String[] names = new String[_ids.length];
+		int[] ids = new int[_ids.length], pows = new int[_ids.length];
+		for (int j = 0; j < _ids.length; j++)
+			if (_pows[j] != 0) { // insertion sort by name
+				String name = name(_ids[j]);
+				int k = n++;
+				for (; k > 0 && names[k - 1].compareTo(name) > 0; k--) {
+					names[k] = names[k - 1];
+					ids[k] = ids[k - 1];
+					pows[k] = pows[k - 1];
+				}
+				names[k] = name;
+				ids[k] = _ids[j];
+				pows[k] = _pows[j];
+			}
+		return new Term(_coef + 0d, ids, pows, n); // + 0d turns -0.0 into 0.0
+	}
+
+	/** Returns a **new** Term with the same variables and powers as this one but
+	 *  with coefficient coef (sharing this Term's arrays)
+	 *
+	 * @param coef
+	 */
+	Term withCoef(double coef) {
+		return new Term(coef, _ids, _pows, _order);
+	}
+
+	/** Returns a key identifying the monomial of this Term (its variables and
+	 *  powers, ignoring the coefficient), independent of variable order.  Two
+	 *  Terms are like terms exactly when their monomial keys are equal.
+	 *
+	 */
+	Monomial getMonomialKey() {
+		int n = 0;
+		for (int pow : _pows)
+			n += pow != 0 ? 1 : 0;
+		if (n == _pows.length)
+			return new Monomial(_ids, _pows);
+		int[] ids = new int[n], pows = new int[n];
+		for (int j = 0, k = 0; j < _pows.length; j++)
+			if (_pows[j] != 0) {
+				ids[k] = _ids[j];
+				pows[k++] = _pows[j];
+			}
+		return new Monomial(ids, pows);
+	}
+
+	/** The variables and nonzero exponents of a Term, for use as a hash key */
+	static final class Monomial {
+		private final int[] _ids;  // ascending
+		private final int[] _pows;
+
+		Monomial(int[] ids, int[] pows) {
+			_ids = ids;
+			_pows = pows;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Monomial && Arrays.equals(_ids, ((Monomial)o)._ids)
+					&& Arrays.equals(_pows, ((Monomial)o)._pows);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Arrays.hashCode(_ids) + Arrays.hashCode(_pows);
+		}
+	}
+
+	/** Tests whether another Object o is a Term with the same coefficient and the
+	 *  same monomial, regardless of the order in which variables were written
+	 *  (so 2*x*y equals 2*y*x).
+	 *
+	 * @param o the object to compare to
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Term))
+			return false;
+		Term t = (Term)o;
+		if (Double.compare(_coef + 0d, t._coef + 0d) != 0)
+			return false;
+		// Compare the factors with nonzero exponents, which are in ascending id order
+		int j = 0, k = 0;
+		while (true) {
+			while (j < _pows.length && _pows[j] == 0)
+				j++;
+			while (k < t._pows.length && t._pows[k] == 0)
+				k++;
+			if (j == _pows.length || k == t._pows.length)
+				return j == _pows.length && k == t._pows.length;
+			if (_ids[j] != t._ids[k] || _pows[j] != t._pows[k])
+				return false;
+			j++;
+			k++;
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 0;
+		for (int j = 0; j < _ids.length; j++)
+			if (_pows[j] != 0)
+				hash = 31 * hash + 17 * _ids[j] + _pows[j];
+		return 31 * Double.hashCode(_coef + 0d) + hash;
+	}
+
 	/** If Term defines a function f(x,y) = 2xy^2 and assignments is { x=2.0 y=3.0 } 
-	 *  then this method returns 36.0, which is the evaluation of f(2.0,3.0). 
+	 *  then this method returns 36.0, which is the evaluation of f(2.0,3.0).
+	 *  Variables missing from assignments are skipped.
 	 * 
 	 * @param assignments
 	 * @return
@@ -126,24 +343,63 @@ public class Term {
 	 * @throws VectorException 
 	 */
 	public double evaluate(Vector assignments) throws PolyException, VectorException {
-			if(assignments != null) {		
-			double product = 1.0d;
-			
-			for (int i = 0 ; i < _pows.size(); i++) {
-				for(String s : assignments.getKeySet()) {
-					if(s.equals(_vars.get(i))) {
-						product *= Math.pow(assignments.getValAt(s), _pows.get(i));
-					}
-				}
-			}
+		if (assignments == null)
+			throw new NullPointerException ("Imma need a real vector");
+		double product = 1.0d;
+		for (int j = 0; j < _ids.length; j++) {
+			String var = name(_ids[j]);
+			if (assignments.getKeySet().contains(var))
+				product *= Math.pow(assignments.getValAt(var), _pows[j]);
+		}
+		return product * _coef;
+	}
+
+	/** Evaluates this Term from the powers in table, which must contain every
+	 *  variable and exponent of this Term (see PowerTable.add(...))
+	 *
+	 * @param table
+	 */
+	double evaluate(PowerTable table) {
+		double product = 1.0d;
+		for (int j = 0; j < _ids.length; j++)
+			product *= table.get(_ids[j], _pows[j]);
+		return product * _coef;
+	}
+
+	/** Adds the variables and exponents of this Term to table */
+	void addPowers(PowerTable table) {
+		for (int j = 0; j < _ids.length; j++)
+			table.need(_ids[j], _pows[j]);
+	}
 
-			product *= _coef;
-			return product;
-			
+	/** Returns the **new** Term d(this) / d(getVar(i)) -- the same as
+	 *  differentiate(getVar(i)) without the variable lookup.  Arrays are shared
+	 *  with this Term unless a factor x^1 is dropped.
+	 *
+	 * @param i -- index of the variable, 0 <= i < getNumVars()
+	 */
+	Term partial(int i) {
+		int j = _order == null ? i : _order[i], pow = _pows[j];
+		if (pow != 1) {
+			int[] pows = _pows.clone();
+			pows[j] = pow - 1;
+			return new Term(_coef * pow, _ids, pows, _order);
 		}
-		else
-			throw new NullPointerException ("Imma need a real vector");
-		
+		// x^1 differentiates to a constant factor: drop position j
+		int n = _ids.length - 1;
+		int[] ids = new int[n], pows = new int[n];
+		System.arraycopy(_ids, 0, ids, 0, j);
+		System.arraycopy(_ids, j + 1, ids, j, n - j);
+		System.arraycopy(_pows, 0, pows, 0, j);
+		System.arraycopy(_pows, j + 1, pows, j, n - j);
+		int[] order = null;
+		if (_order != null) {
+			order = new int[n];
+			for (int w = 0, v = 0; w <= n; w++)
+				if (w != i)
+					order[v++] = _order[w] > j ? _order[w] - 1 : _order[w];
+		}
+		return new Term(_coef * pow, n == 0 ? NONE : ids, n == 0 ? NONE : pows, order);
 	}
 
 	/** If Term defines a function f(.) then this method returns the **symbolic**
@@ -159,44 +415,14 @@ public class Term {
 	 * @return partial derivative of this w.r.t. var as a new Term
 	 */
 	public Term differentiate(String var) throws Exception{
-		//identify the position of the var to differentiate wrt in the term		
-		int i = this._vars.indexOf(var);
-		Term t = new Term(this._coef);
-		boolean found = false;
-		
-		t._pows.addAll(this._pows);
-		t._vars.addAll(this._vars);
-		
-		if(_pows.size() == 0) {
-			t._pows.removeAll(this._pows);
-			t._vars.removeAll(this._vars);
-			t._coef = 0;
-		}
-		
-		
-		
-		//apply differentiation to the specific part of the term
-		for(int j = 0 ; j < _vars.size() ; j++) {
-			if(j == i) {
-				found = true;
-				t._coef *= this._pows.get(j);
-				t._pows.set(j, this._pows.get(j) -1);
-				//if the exponent of a term is 0 remove that term
-				if(t._pows.get(j) == 0) {
-					t._pows.remove(j);
-					t._vars.remove(j);
-				}
-			}
-			
-		}
-		
-		if (!found) {
-			t._pows.removeAll(this._pows);
-			t._vars.removeAll(this._vars);
-			t._coef = 0;
-		}
-		
-		return t;
+		int j = indexOf(var);
+		if (j < 0)
+			return new Term(0d); // includes the constant Term
+		if (_order == null)
+			return partial(j);
+		for (int i = 0; ; i++)
+			if (_order[i] == j)
+				return partial(i);
 	}
 	
 	
@@ -208,6 +434,12 @@ public class Term {
 		System.out.println(t1.evaluate(v));
 		System.out.println(t1.differentiate("x"));
 		System.out.println(t1.differentiate("y"));
+
+		Term t2 = new Term("3*z^2*y*x^4"); // written out of id order
+		System.out.println(t2 + " " + t2.getAllVars()); // Should print "3.000*z^2*y*x^4 [x, y, z]"
+		System.out.println(t2.differentiate("y") + " " + t2.differentiate("z") + " " + t2.differentiate("w"));
+		// Should print "3.000*z^2*x^4 6.000*z*y*x^4 0.000"
+		System.out.println(t2.canonicalize() + " " + t2.equals(new Term("3*x^4*y*z^2"))); // Should print "3.000*x^4*y*z^2 true"
 	}
 	
 }
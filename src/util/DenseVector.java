@@ -0,0 +1,254 @@
+package util;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Arrays;
+
+/** A dense counterpart of Vector: the values are kept in a double[] and the
+ *  dimension names come from a shared VariableIndex, so coordinate i is the
+ *  variable index.getName(i).  Arithmetic does no boxing, hashing or (for the
+ *  in-place operations axpy, scale, setAll) allocation.
+ *
+ *  The dimension of a DenseVector is the size of its VariableIndex at the time
+ *  it was constructed.  Two DenseVectors can only be combined if they share the
+ *  same VariableIndex and dimension.
+ *
+ */
+public class DenseVector {
+
+	private final VariableIndex _index; // names of the dimensions
+	private final double[] _values;     // _values[i] is the value of _index.getName(i)
+
+	/** Constructor of a zero DenseVector with one dimension per variable in index
+	 *
+	 * @param index
+	 */
+	public DenseVector(VariableIndex index) {
+		_index = index;
+		_values = new double[index.size()];
+	}
+
+	/** Constructor that parses a String s like "{ x=-1 y=-2.0 z=3d }" (the format
+	 *  of Vector(String) and toString()), adding any new variables to index.
+	 *
+	 * @param s
+	 * @param index
+	 * @throws VectorException
+	 */
+	public DenseVector(String s, VariableIndex index) throws VectorException {
+		this(new Vector(s), index);
+	}
+
+	/** Constructor that converts a named Vector, adding any new variables to index.
+	 *  Variables of index that are not in v are set to 0.
+	 *
+	 * @param v
+	 * @param index
+	 * @throws VectorException
+	 */
+	public DenseVector(Vector v, VariableIndex index) throws VectorException {
+		_index = index;
+		for (String var : v.getKeySet())
+			index.getOrAdd(var);
+		_values = new double[index.size()];
+		for (String var : v.getKeySet())
+			_values[index.getIndex(var)] = v.getValAt(var);
+	}
+
+	/** Converts this DenseVector back to a named Vector (one entry per dimension)
+	 *
+	 * @throws VectorException
+	 */
+	public Vector toVector() throws VectorException {
+		Vector v = new Vector();
+		for (int i = 0; i < _values.length; i++)
+			v.set(_index.getName(i), _values[i]);
+		return v;
+	}
+
+	/** Constructs a String representation of this DenseVector in index order,
+	 *  re-parseable by Vector(String) and DenseVector(String, VariableIndex)
+	 *
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		NumberFormat f = new DecimalFormat("#.0000");
+		sb.append("{ ");
+		for (int i = 0; i < _values.length; i++)
+			sb.append(_index.getName(i) + "=" + f.format(_values[i]) + " ");
+		sb.append("}");
+		return sb.toString();
+	}
+
+	/** Tests whether another Object o is a DenseVector over the same index with
+	 *  all elements equal to *this*
+	 *
+	 * @param o the object to compare to
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof DenseVector))
+			return false;
+		DenseVector v = (DenseVector)o;
+		return _index == v._index && Arrays.equals(_values, v._values);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(_values);
+	}
+
+	public VariableIndex getIndex() { return _index; }
+	public int getDim()             { return _values.length; }
+
+	/** Returns the backing array (not a copy) for algorithms that work in place
+	 *
+	 */
+	public double[] getValues() {
+		return _values;
+	}
+
+	/** Returns the value of var
+	 *
+	 * @param var
+	 * @throws VectorException if var is not a dimension of this DenseVector
+	 */
+	public double getValAt(String var) throws VectorException {
+		return _values[checkedIndex(var)];
+	}
+
+	/** Sets a specific var to the value val in *this*, i.e., var=val
+	 *
+	 * @param var
+	 * @param val
+	 * @throws VectorException if var is not a dimension of this DenseVector
+	 */
+	public void set(String var, double val) throws VectorException {
+		_values[checkedIndex(var)] = val;
+	}
+
+	/** Copies all entries of x into *this* (in place)
+	 *
+	 * @param x
+	 * @throws VectorException
+	 */
+	public void setAll(DenseVector x) throws VectorException {
+		checkCompatible(x);
+		System.arraycopy(x._values, 0, _values, 0, _values.length);
+	}
+
+	/** returns a new vector that is the sum of *this* and v
+	 *
+	 * @param v
+	 * @throws VectorException
+	 */
+	public DenseVector sum(DenseVector v) throws VectorException {
+		checkCompatible(v);
+		DenseVector vNew = new DenseVector(_index, _values.length);
+		for (int i = 0; i < _values.length; i++)
+			vNew._values[i] = _values[i] + v._values[i];
+		return vNew;
+	}
+
+	/** returns a new vector where every entry of *this* is multiplied by d
+	 *
+	 * @param d
+	 */
+	public DenseVector scalarMult(double d) {
+		DenseVector vNew = new DenseVector(_index, _values.length);
+		for (int i = 0; i < _values.length; i++)
+			vNew._values[i] = d * _values[i];
+		return vNew;
+	}
+
+	/** In place: *this* = *this* + a * x
+	 *
+	 * @param a
+	 * @param x
+	 * @throws VectorException
+	 */
+	public void axpy(double a, DenseVector x) throws VectorException {
+		checkCompatible(x);
+		for (int i = 0; i < _values.length; i++)
+			_values[i] += a * x._values[i];
+	}
+
+	/** In place: *this* = a * *this*
+	 *
+	 * @param a
+	 */
+	public void scale(double a) {
+		for (int i = 0; i < _values.length; i++)
+			_values[i] *= a;
+	}
+
+	/** returns the inner product of *this* and x
+	 *
+	 * @param x
+	 * @throws VectorException
+	 */
+	public double dot(DenseVector x) throws VectorException {
+		checkCompatible(x);
+		double sum = 0d;
+		for (int i = 0; i < _values.length; i++)
+			sum += _values[i] * x._values[i];
+		return sum;
+	}
+
+	/** returns the L2 norm (length) of *this*
+	 *
+	 */
+	public double norm() {
+		double sum = 0d;
+		for (int i = 0; i < _values.length; i++)
+			sum += _values[i] * _values[i];
+		return Math.sqrt(sum);
+	}
+
+	/** Same as norm(), named to match Vector.computeL2Norm()
+	 *
+	 */
+	public double computeL2Norm() {
+		return norm();
+	}
+
+	private DenseVector(VariableIndex index, int dim) {
+		_index = index;
+		_values = new double[dim];
+	}
+
+	private int checkedIndex(String var) throws VectorException {
+		int i = _index.getIndex(var);
+		if (i < 0 || i >= _values.length)
+			throw new VectorException(var + " is not a dimension of this vector");
+		return i;
+	}
+
+	private void checkCompatible(DenseVector v) throws VectorException {
+		if (v == null)
+			throw new VectorException("Cannot combine with a null vector");
+		if (v._index != _index || v._values.length != _values.length)
+			throw new VectorException("Cannot combine vectors over different variables");
+	}
+
+	/** Examples mirroring Vector.main(...) with expected output
+	 *
+	 * @param args (unused -- ignore)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		VariableIndex index = new VariableIndex();
+		DenseVector vec1 = new DenseVector("{ x=1.0 y=2.0 z=3.0 }", index);
+		DenseVector vec2 = new DenseVector("{ x=-3.0 y=-2.0 z=-1.0 }", index);
+
+		System.out.println(vec1);                   // Should print: { x=1.0000 y=2.0000 z=3.0000 }
+		System.out.println(vec1.sum(vec2));         // Should print: { x=-2.0000 y=.0000 z=2.0000 }
+		System.out.println(vec1.scalarMult(0.5));   // Should print: { x=.5000 y=1.0000 z=1.5000 }
+		System.out.format("%01.3f\n", vec1.norm()); // Should print: 3.742
+		System.out.println(vec1.dot(vec2));         // Should print: -10.0
+		vec1.axpy(-1.0, vec2);
+		System.out.println(vec1);                   // Should print: { x=4.0000 y=4.0000 z=4.0000 }
+		System.out.println(new DenseVector(vec1.toVector(), index).equals(vec1)); // Should print: true
+	}
+}
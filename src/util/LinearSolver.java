@@ -0,0 +1,124 @@
+package util;
+
+/** Solvers for symmetric positive definite linear systems A x = b: a dense
+ *  Cholesky factorization for small systems and matrix-free conjugate gradient
+ *  (CG) for large ones.  Both report when A turns out not to be positive definite
+ *  so callers can fall back to something else.
+ *
+ */
+public class LinearSolver {
+
+	/** A (symmetric) matrix given only through its product with a vector, so CG
+	 *  can run on sparse or implicit matrices
+	 */
+	public interface LinearOperator {
+
+		/** out = A * in
+		 *
+		 * @param in
+		 * @param out
+		 */
+		public void apply(double[] in, double[] out);
+	}
+
+	private LinearSolver() { } // static methods only
+
+	/** Computes the Cholesky factor L (lower triangular, A = L L^T) of the
+	 *  symmetric matrix a into l.  Only the lower triangle of a is read.
+	 *
+	 * @param a -- n x n symmetric matrix
+	 * @param l -- n x n output (may not be a)
+	 * @return false if a is not (numerically) positive definite
+	 */
+	public static boolean cholesky(double[][] a, double[][] l) {
+		int n = a.length;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j <= i; j++) {
+				double sum = a[i][j];
+				for (int k = 0; k < j; k++)
+					sum -= l[i][k] * l[j][k];
+				if (i == j) {
+					if (!(sum > 0d))
+						return false;
+					l[i][i] = Math.sqrt(sum);
+				} else
+					l[i][j] = sum / l[j][j];
+			}
+			for (int j = i + 1; j < n; j++)
+				l[i][j] = 0d;
+		}
+		return true;
+	}
+
+	/** Solves L L^T x = b given the Cholesky factor l from cholesky(...)
+	 *
+	 * @param l
+	 * @param b
+	 * @param x -- output (may be b)
+	 */
+	public static void choleskySolve(double[][] l, double[] b, double[] x) {
+		int n = l.length;
+		for (int i = 0; i < n; i++) { // forward: L y = b
+			double sum = b[i];
+			for (int k = 0; k < i; k++)
+				sum -= l[i][k] * x[k];
+			x[i] = sum / l[i][i];
+		}
+		for (int i = n - 1; i >= 0; i--) { // backward: L^T x = y
+			double sum = x[i];
+			for (int k = i + 1; k < n; k++)
+				sum -= l[k][i] * x[k];
+			x[i] = sum / l[i][i];
+		}
+	}
+
+	/** Solves A x = b by conjugate gradient, starting from the given x.  Stops when
+	 *  ||A x - b|| <= tol * ||b|| or after maxIter iterations.
+	 *
+	 * @param a
+	 * @param b
+	 * @param x -- initial guess on input, solution on output
+	 * @param tol -- relative residual tolerance
+	 * @param maxIter
+	 * @return number of iterations, or -1 if a direction of non-positive curvature
+	 *         was found (A is not positive definite)
+	 */
+	public static int conjugateGradient(LinearOperator a, double[] b, double[] x, double tol, int maxIter) {
+		int n = b.length;
+		double[] r = new double[n];
+		double[] p = new double[n];
+		double[] ap = new double[n];
+
+		a.apply(x, ap);
+		double rr = 0d, bb = 0d;
+		for (int i = 0; i < n; i++) {
+			r[i] = b[i] - ap[i];
+			p[i] = r[i];
+			rr += r[i] * r[i];
+			bb += b[i] * b[i];
+		}
+		double stop = tol * tol * bb;
+		int iter = 0;
+		while (rr > stop && iter < maxIter) {
+			iter++;
+			a.apply(p, ap);
+			double pap = 0d;
+			for (int i = 0; i < n; i++)
+				pap += p[i] * ap[i];
+			if (!(pap > 0d))
+				return -1;
+			double alpha = rr / pap;
+			double rrNew = 0d;
+			for (int i = 0; i < n; i++) {
+				x[i] += alpha * p[i];
+				r[i] -= alpha * ap[i];
+				rrNew += r[i] * r[i];
+			}
+			double beta = rrNew / rr;
+			for (int i = 0; i < n; i++)
+				p[i] = r[i] + beta * p[i];
+			rr = rrNew;
+		}
+		return iter;
+	}
+}
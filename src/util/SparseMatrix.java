@@ -0,0 +1,81 @@
+package util;
+
+import java.util.Arrays;
+
+/** A square sparse matrix in compressed sparse row (CSR) form, built from
+ *  (row, col, value) triplets with duplicate entries summed.  Usable as the
+ *  LinearOperator of LinearSolver.conjugateGradient(...).
+ *
+ */
+public class SparseMatrix implements LinearSolver.LinearOperator {
+
+	private final int _n;           // dimension
+	private final int[] _rowStart;  // row i has entries _rowStart[i] .. _rowStart[i+1]-1
+	private final int[] _cols;      // column of each entry
+	private final double[] _vals;   // value of each entry
+
+	/** Builds an n x n matrix from nnz triplets (rows[k], cols[k], vals[k])
+	 *
+	 * @param n
+	 * @param rows
+	 * @param cols
+	 * @param vals
+	 * @param nnz -- number of triplets used from the arrays
+	 */
+	public SparseMatrix(int n, int[] rows, int[] cols, double[] vals, int nnz) {
+		_n = n;
+
+		// Sort triplets by (row, col) through an index permutation
+		Integer[] order = new Integer[nnz];
+		for (int k = 0; k < nnz; k++)
+			order[k] = k;
+		Arrays.sort(order, (a, b) -> rows[a] != rows[b] ? Integer.compare(rows[a], rows[b])
+				: Integer.compare(cols[a], cols[b]));
+
+		int[] c = new int[nnz];
+		double[] v = new double[nnz];
+		_rowStart = new int[n + 1];
+		int m = 0;
+		for (int k = 0; k < nnz; k++) {
+			int t = order[k];
+			if (m > 0 && rows[order[k - 1]] == rows[t] && c[m - 1] == cols[t])
+				v[m - 1] += vals[t]; // duplicate entry
+			else {
+				c[m] = cols[t];
+				v[m] = vals[t];
+				_rowStart[rows[t] + 1]++;
+				m++;
+			}
+		}
+		for (int i = 0; i < n; i++)
+			_rowStart[i + 1] += _rowStart[i];
+		_cols = Arrays.copyOf(c, m);
+		_vals = Arrays.copyOf(v, m);
+	}
+
+	public int getDim()         { return _n; }
+	public int getNumNonZeros() { return _vals.length; }
+
+	/** out = this * in
+	 *
+	 */
+	public void apply(double[] in, double[] out) {
+		for (int i = 0; i < _n; i++) {
+			double sum = 0d;
+			for (int k = _rowStart[i]; k < _rowStart[i + 1]; k++)
+				sum += _vals[k] * in[_cols[k]];
+			out[i] = sum;
+		}
+	}
+
+	/** Returns this matrix as a new dense n x n array
+	 *
+	 */
+	public double[][] toDense() {
+		double[][] a = new double[_n][_n];
+		for (int i = 0; i < _n; i++)
+			for (int k = _rowStart[i]; k < _rowStart[i + 1]; k++)
+				a[i][_cols[k]] += _vals[k];
+		return a;
+	}
+}
@@ -0,0 +1,106 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** A symbol table that assigns each variable name a dense integer index
+ *  (0, 1, 2, ... in order of first appearance).  A single VariableIndex is meant
+ *  to be shared by all the DenseVectors of a problem so that coordinate i means
+ *  the same variable everywhere.  Names are interned so each distinct variable
+ *  name is stored only once.
+ *
+ *  One index can be shared between threads.  Adding and looking up names is
+ *  synchronized, while getName(...) and size() (the hot path when evaluating
+ *  Terms) read without a lock: the names array is only appended to, and each
+ *  append is published through the volatile _size.
+ *
+ */
+public class VariableIndex {
+
+	private HashMap<String,Integer> _hmVar2Index; // variable name -> index, guarded by this
+	private volatile String[]       _names;       // index -> variable name, slots >= _size unused
+	private volatile int            _size;        // number of variables, written after _names
+
+	/** Constructor of an initially empty VariableIndex
+	 *
+	 */
+	public VariableIndex() {
+		_hmVar2Index = new HashMap<String,Integer>();
+		_names = new String[16];
+		_size = 0;
+	}
+
+	/** Constructor that adds the given variables in order
+	 *
+	 * @param vars
+	 * @throws VectorException if a variable is null
+	 */
+	public VariableIndex(Iterable<String> vars) throws VectorException {
+		this();
+		for (String var : vars)
+			getOrAdd(var);
+	}
+
+	/** Returns the index of var, adding it at the end if it is not yet known
+	 *
+	 * @param var
+	 * @throws VectorException if var is null
+	 */
+	public synchronized int getOrAdd(String var) throws VectorException {
+		if (var == null)
+			throw new VectorException("Cannot index a null variable");
+		Integer index = _hmVar2Index.get(var);
+		if (index == null) {
+			index = _size;
+			var = var.intern();
+			_hmVar2Index.put(var, index);
+			String[] names = _names;
+			if (index == names.length)
+				_names = names = Arrays.copyOf(names, 2 * index);
+			names[index] = var;
+			_size = index + 1; // publishes names[index] to unsynchronized readers
+		}
+		return index;
+	}
+
+	/** Returns the index of var, or -1 if var is not in this index
+	 *
+	 * @param var
+	 */
+	public synchronized int getIndex(String var) {
+		Integer index = _hmVar2Index.get(var);
+		return index == null ? -1 : index;
+	}
+
+	/** Returns the variable name stored at index
+	 *
+	 * @param index
+	 */
+	public String getName(int index) {
+		if (index < 0 || index >= _size) // read _size before _names
+			throw new IndexOutOfBoundsException("No variable at index " + index);
+		return _names[index];
+	}
+
+	/** Returns the number of variables in this index
+	 *
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/** Returns the variable names in index order (a copy)
+	 *
+	 */
+	public List<String> getNames() {
+		int size = _size;
+		return new ArrayList<String>(Arrays.asList(_names).subList(0, size));
+	}
+
+	@Override
+	public String toString() {
+		return getNames().toString();
+	}
+}